@@ -0,0 +1,86 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.example.mqttbrokerapi.controller.v1.MqttOperationController;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.impl.BrokerConfigRepositoryImpl;
+import com.example.mqttbrokerapi.service.AdmissionControl;
+import com.example.mqttbrokerapi.service.BrokerCircuitBreaker;
+import com.example.mqttbrokerapi.service.ClientConnectWorkFlow;
+import com.example.mqttbrokerapi.service.DeliveryLatency;
+import com.example.mqttbrokerapi.service.LastValueCache;
+import com.example.mqttbrokerapi.service.MessageTracer;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.example.mqttbrokerapi.service.PublishSpool;
+import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.example.mqttbrokerapi.service.ReplayBuffer;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer;
+import com.example.mqttbrokerapi.service.SubscriptionWorkFlow;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.util.unit.DataSize;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Wires the services and the controller by hand, the way the Spring context would, around a
+ * {@link FakeMqtt5ReactorClient}.
+ */
+final class BenchmarkApplication {
+	static final String BROKER_NAME = "broker1";
+
+	static final String TOPIC = "sensors/1/temp";
+
+	final BrokerConfigRepositoryImpl brokerConfigRepository = new BrokerConfigRepositoryImpl();
+
+	final MqttMetrics mqttMetrics = new MqttMetrics(new SimpleMeterRegistry());
+
+	final MessageTracer messageTracer = new MessageTracer(0, List.of(), 64);
+
+	final DeliveryLatency deliveryLatency = new DeliveryLatency(mqttMetrics, false, 100);
+
+	final PublishQueue publishQueue = new PublishQueue(mqttMetrics, DataSize.ofMegabytes(64),
+			PublishQueue.OverflowPolicy.REJECT);
+
+	final LastValueCache lastValueCache = new LastValueCache(mqttMetrics, 10000, Duration.ofHours(1));
+
+	final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 64, DataSize.ofKilobytes(256));
+
+	final PublisherWorkFlow publisherWorkFlow;
+
+	final SubscriptionWorkFlow subscriptionWorkFlow;
+
+	final MqttClientRegistry mqttClientRegistry;
+
+	final MqttOperationController controller;
+
+	final Mqtt5ReactorClient mqtt5ReactorClient;
+
+	BenchmarkApplication(final int subscribedMessages, final int payloadSize) {
+		mqtt5ReactorClient = FakeMqtt5ReactorClient.create(TOPIC, subscribedMessages, payloadSize);
+		final SubscriptionMultiplexer subscriptionMultiplexer = new SubscriptionMultiplexer(topic -> Mqtt5Subscribe.builder()
+				.topicFilter(topic)
+				.qos(MqttQos.AT_LEAST_ONCE)
+				.build(), mqttMetrics, lastValueCache, replayBuffer, Math.max(256, subscribedMessages), 65536,
+				SubscriptionMultiplexer.OverflowStrategy.DROP_OLDEST);
+		subscriptionWorkFlow = new SubscriptionWorkFlow(subscriptionMultiplexer, messageTracer, mqttMetrics,
+				Schedulers.parallel(), deliveryLatency);
+		mqttClientRegistry = new MqttClientRegistry(brokerConfiguration -> mqtt5ReactorClient,
+				new ClientConnectWorkFlow(mqttMetrics, 1024), new BrokerCircuitBreaker(mqttMetrics, 3, Duration.ofSeconds(1),
+						Duration.ofMinutes(1), 2, 0.2, Duration.ofSeconds(10)), publishQueue, mqttMetrics, Duration.ofHours(1), Duration.ofHours(1));
+		publisherWorkFlow = new PublisherWorkFlow(messageTracer, mqttMetrics, publishQueue,
+				new PublishSpool(publishQueue, mqttClientRegistry, brokerConfigRepository, mqttMetrics, false,
+						"build/spool", DataSize.ofMegabytes(16)), deliveryLatency);
+		controller = new MqttOperationController(brokerConfigRepository, mqttClientRegistry, subscriptionWorkFlow,
+				publisherWorkFlow, lastValueCache, new AdmissionControl(mqttMetrics, List.of()));
+		brokerConfigRepository.persistBrokerConfiguration(BROKER_NAME, BrokerConfiguration.builder()
+				.hostName("localhost")
+				.port(1883)
+				.build());
+	}
+}
@@ -0,0 +1,67 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.impl.BrokerConfigRepositoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class BrokerConfigRepositoryBenchmark {
+	@Param({"100", "10000"})
+	public int brokers;
+
+	private BrokerConfigRepositoryImpl brokerConfigRepository;
+
+	private String[] brokerNames;
+
+	@Setup
+	public void setUp() {
+		brokerConfigRepository = new BrokerConfigRepositoryImpl();
+		brokerNames = new String[brokers];
+		for (int i = 0; i < brokers; i++) {
+			brokerNames[i] = "broker-" + i;
+			brokerConfigRepository.persistBrokerConfiguration(brokerNames[i], BrokerConfiguration.builder()
+					.hostName("host-" + i)
+					.port(8883)
+					.build());
+		}
+	}
+
+	@Benchmark
+	public BrokerConfiguration lookup() {
+		return brokerConfigRepository
+				.lookupBrokerConfiguration(brokerNames[ThreadLocalRandom.current().nextInt(brokers)])
+				.block();
+	}
+
+	@Benchmark
+	public Object lookupWhileUpdating() {
+		final int index = ThreadLocalRandom.current().nextInt(brokers);
+		if (index % 10 == 0) {
+			return brokerConfigRepository.persistBrokerConfiguration(brokerNames[index], BrokerConfiguration.builder()
+					.hostName("host-" + index)
+					.port(8883)
+					.build()).block();
+		}
+		return brokerConfigRepository.lookupBrokerConfiguration(brokerNames[index]).block();
+	}
+}
@@ -0,0 +1,56 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.example.mqttbrokerapi.dto.SubscribeOptionsDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full controller pipeline, from broker lookup through the pooled client to the fake broker, without
+ * the HTTP layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ControllerPipelineBenchmark {
+	private static final String MESSAGE = "{\"temperature\":21.5}";
+
+	private BenchmarkApplication application;
+
+	@Setup
+	public void setUp() {
+		application = new BenchmarkApplication(100, MESSAGE.length());
+	}
+
+	@TearDown
+	public void tearDown() {
+		application.mqttClientRegistry.shutdown();
+	}
+
+	@Benchmark
+	public Object publish() {
+		return application.controller
+				.publishToTheBroker(BenchmarkApplication.BROKER_NAME, BenchmarkApplication.TOPIC, 1, false, true, MESSAGE)
+				.block();
+	}
+
+	@Benchmark
+	public Object subscribe() {
+		return application.controller
+				.subscribeFromTheBroker(BenchmarkApplication.BROKER_NAME, BenchmarkApplication.TOPIC, new SubscribeOptionsDTO())
+				.blockLast();
+	}
+}
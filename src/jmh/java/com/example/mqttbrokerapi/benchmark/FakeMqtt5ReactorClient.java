@@ -0,0 +1,80 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.suback.Mqtt5SubAck;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import com.hivemq.client.rx.reactor.CoreWithSingleSubscriber;
+import com.hivemq.client.rx.reactor.FluxWithSingle;
+import org.reactivestreams.Publisher;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * In-process stand-in for a connected {@link Mqtt5ReactorClient}. Publishes are acknowledged immediately
+ * and every subscription replays a fixed set of messages, so benchmarks measure only this application's code.
+ * Only the calls the benchmarks make are answered, any other one fails.
+ */
+final class FakeMqtt5ReactorClient {
+
+	private FakeMqtt5ReactorClient() {
+	}
+
+	@SuppressWarnings("unchecked")
+	static Mqtt5ReactorClient create(final String topic, final int messages, final int payloadSize) {
+		final byte[] payload = "x".repeat(payloadSize).getBytes(StandardCharsets.UTF_8);
+		final List<Mqtt5Publish> subscribedPublishes = IntStream.range(0, messages)
+				.mapToObj(i -> Mqtt5Publish.builder().topic(topic).payload(payload).build())
+				.toList();
+		return (Mqtt5ReactorClient) Proxy.newProxyInstance(Mqtt5ReactorClient.class.getClassLoader(),
+				new Class<?>[] {Mqtt5ReactorClient.class}, (proxy, method, args) -> switch (method.getName()) {
+					case "getState" -> MqttClientState.CONNECTED;
+					case "getConfig" -> null;
+					case "publish" -> Flux.from((Publisher<Mqtt5Publish>) args[0]).map(AcknowledgedResult::new);
+					case "subscribePublishes" -> new ReplayingFlux(Flux.fromIterable(subscribedPublishes));
+					case "unsubscribe", "disconnect" -> Mono.empty();
+					case "hashCode" -> System.identityHashCode(proxy);
+					case "equals" -> proxy == args[0];
+					case "toString" -> "FakeMqtt5ReactorClient";
+					default -> throw new UnsupportedOperationException(method.getName());
+				});
+	}
+
+	private record AcknowledgedResult(Mqtt5Publish publish) implements Mqtt5PublishResult {
+		@Override
+		public Mqtt5Publish getPublish() {
+			return publish;
+		}
+
+		@Override
+		public Optional<Throwable> getError() {
+			return Optional.empty();
+		}
+	}
+
+	private static final class ReplayingFlux extends FluxWithSingle<Mqtt5Publish, Mqtt5SubAck> {
+		private final Flux<Mqtt5Publish> source;
+
+		private ReplayingFlux(final Flux<Mqtt5Publish> source) {
+			this.source = source;
+		}
+
+		@Override
+		public void subscribe(final CoreSubscriber<? super Mqtt5Publish> actual) {
+			source.subscribe(actual);
+		}
+
+		@Override
+		public void subscribeBoth(final CoreWithSingleSubscriber<? super Mqtt5Publish, ? super Mqtt5SubAck> subscriber) {
+			source.subscribe(subscriber);
+		}
+	}
+}
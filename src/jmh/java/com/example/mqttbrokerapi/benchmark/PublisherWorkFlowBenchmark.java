@@ -0,0 +1,54 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublisherWorkFlowBenchmark {
+	@Param({"16", "1024", "65536"})
+	public int payloadSize;
+
+	private PublisherWorkFlow publisherWorkFlow;
+
+	private String stringPayload;
+
+	private ByteBuffer binaryPayload;
+
+	@Setup
+	public void setUp() {
+		publisherWorkFlow = new BenchmarkApplication(0, 0).publisherWorkFlow;
+		stringPayload = "x".repeat(payloadSize);
+		binaryPayload = ByteBuffer.wrap(stringPayload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public Mqtt5Publish buildStringPayload() {
+		return publisherWorkFlow.buildPayload(stringPayload, BenchmarkApplication.TOPIC, MqttQos.AT_LEAST_ONCE);
+	}
+
+	@Benchmark
+	public Mqtt5Publish buildBinaryPayload() {
+		return publisherWorkFlow.buildPayload(binaryPayload, BenchmarkApplication.TOPIC, MqttQos.AT_LEAST_ONCE);
+	}
+}
@@ -0,0 +1,57 @@
+package com.example.mqttbrokerapi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per received message of the multiplexer, decode and map pipeline. Each invocation drains
+ * {@value #MESSAGES} messages replayed by the fake client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(SubscriptionWorkFlowBenchmark.MESSAGES)
+public class SubscriptionWorkFlowBenchmark {
+	static final int MESSAGES = 1000;
+
+	@Param({"16", "1024"})
+	public int payloadSize;
+
+	private BenchmarkApplication application;
+
+	@Setup
+	public void setUp() {
+		application = new BenchmarkApplication(MESSAGES, payloadSize);
+	}
+
+	@Benchmark
+	public String stringPayloads() {
+		return application.subscriptionWorkFlow
+				.subscriptionWorkFlow(BenchmarkApplication.BROKER_NAME, application.mqtt5ReactorClient,
+						BenchmarkApplication.TOPIC)
+				.blockLast();
+	}
+
+	@Benchmark
+	public Object binaryPayloads() {
+		return application.subscriptionWorkFlow
+				.binarySubscriptionWorkFlow(BenchmarkApplication.BROKER_NAME, application.mqtt5ReactorClient,
+						BenchmarkApplication.TOPIC)
+				.blockLast();
+	}
+}
@@ -0,0 +1,249 @@
+package com.example.mqttbrokerapi.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.example.mqttbrokerapi.MqttBrokerApiApplication;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer;
+import com.google.gson.GsonBuilder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * End-to-end load test. Starts the application against a {@link StandInMqttBroker}, streams from M
+ * subscribers while N publishers post messages over HTTP and reports delivery throughput, latency
+ * percentiles, open sockets, threads and heap. Publishers and subscribers are spread over
+ * {@code loadtest.brokers} broker configurations that all point to the stand-in broker, so runs with
+ * a growing broker count show how threads and throughput scale with the number of clients.
+ * Configured through {@code loadtest.*} system properties.
+ */
+public final class LoadTest {
+	private static final String BROKER_NAME = "loadtest";
+
+	private final int publishers = Integer.getInteger("loadtest.publishers", 8);
+
+	private final int subscribers = Integer.getInteger("loadtest.subscribers", 16);
+
+	private final int messagesPerPublisher = Integer.getInteger("loadtest.messages", 2000);
+
+	private final int payloadBytes = Integer.getInteger("loadtest.payload-bytes", 128);
+
+	private final int topics = Integer.getInteger("loadtest.topics", 4);
+
+	private final int brokers = Integer.getInteger("loadtest.brokers", 1);
+
+	private final Duration drainTimeout = Duration.parse(System.getProperty("loadtest.drain-timeout", "PT30S"));
+
+	private final Path reportFile = Path.of(System.getProperty("loadtest.report", "build/reports/loadtest/results.json"));
+
+	private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+
+	private final LongAdder received = new LongAdder();
+
+	private LoadTest() {
+	}
+
+	public static void main(final String[] args) {
+		try {
+			new LoadTest().run();
+			System.exit(0);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private void run() throws Exception {
+		try (StandInMqttBroker broker = StandInMqttBroker.start(0);
+				ConfigurableApplicationContext application = new SpringApplicationBuilder(MqttBrokerApiApplication.class)
+						.run("--server.port=0", "--broker.client.ssl=false", "--spring.main.banner-mode=off",
+								"--logging.level.root=WARN")) {
+			final int serverPort = Integer.parseInt(application.getEnvironment().getProperty("local.server.port"));
+			final ConnectionProvider connectionProvider = ConnectionProvider.builder("loadtest")
+					.maxConnections(publishers + subscribers + 8)
+					.pendingAcquireMaxCount(-1)
+					.build();
+			final WebClient webClient = WebClient.builder()
+					.baseUrl("http://localhost:" + serverPort + "/mqtt")
+					.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+					.build();
+
+			Flux.range(0, brokers)
+					.concatMap(index -> webClient.put()
+							.uri("/{broker}", brokerName(index))
+							.contentType(MediaType.APPLICATION_JSON)
+							.bodyValue(Map.of("host_name", "localhost", "port", broker.port()))
+							.retrieve()
+							.toBodilessEntity())
+					.blockLast();
+
+			final List<Disposable> streams = new ArrayList<>();
+			for (int subscriber = 0; subscriber < subscribers; subscriber++) {
+				streams.add(webClient.get()
+						.uri("/{broker}/get/{topic}", brokerName(subscriber), topic(subscriber))
+						.accept(MediaType.TEXT_EVENT_STREAM)
+						.retrieve()
+						.bodyToFlux(String.class)
+						.subscribe(this::record, throwable -> System.err.println("Subscriber failed: " + throwable)));
+			}
+			awaitSubscribers(application.getBean(SubscriptionMultiplexer.class), broker);
+
+			final long expected = expectedDeliveries();
+			final long start = System.nanoTime();
+			Flux.range(0, publishers)
+					.flatMap(publisher -> Flux.range(0, messagesPerPublisher)
+							.concatMap(message -> Mono.defer(() -> webClient.post()
+									.uri("/{broker}/send/{topic}", brokerName(publisher), topic(publisher))
+									.contentType(MediaType.TEXT_PLAIN)
+									.bodyValue(payload())
+									.retrieve()
+									.toBodilessEntity())), publishers)
+					.then()
+					.block();
+			final long published = System.nanoTime();
+			final long deadline = published + drainTimeout.toNanos();
+			while (received.sum() < expected && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			final long drained = System.nanoTime();
+			final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+			streams.forEach(Disposable::dispose);
+			Thread.sleep(500);
+			System.gc();
+
+			final Map<String, Object> report = new LinkedHashMap<>();
+			report.put("publishers", publishers);
+			report.put("subscribers", subscribers);
+			report.put("topics", topics);
+			report.put("brokers", brokers);
+			report.put("payloadBytes", payloadBytes);
+			report.put("published", (long) publishers * messagesPerPublisher);
+			report.put("expectedDeliveries", expected);
+			report.put("deliveries", received.sum());
+			report.put("publishPerSecond", perSecond((long) publishers * messagesPerPublisher, published - start));
+			report.put("deliveriesPerSecond", perSecond(received.sum(), drained - start));
+			report.put("latencyP50Micros", latencies.getValueAtPercentile(50));
+			report.put("latencyP99Micros", latencies.getValueAtPercentile(99));
+			report.put("latencyP999Micros", latencies.getValueAtPercentile(99.9));
+			report.put("latencyMaxMicros", latencies.getMaxValue());
+			report.put("openSockets", openSockets());
+			report.put("brokerConnections", broker.connectionCount());
+			report.put("threads", threads);
+			report.put("peakThreads", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+			report.put("heapUsedBytes", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+			final String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+			System.out.println(json);
+			Files.createDirectories(reportFile.toAbsolutePath().getParent());
+			Files.writeString(reportFile, json);
+			connectionProvider.disposeLater().block();
+		}
+	}
+
+	private void awaitSubscribers(final SubscriptionMultiplexer subscriptionMultiplexer, final StandInMqttBroker broker)
+			throws InterruptedException {
+		final int upstreamTopics = subscribedTopics().size();
+		final long deadline = System.nanoTime() + drainTimeout.toNanos();
+		while (attachedSubscribers(subscriptionMultiplexer) < subscribers || broker.subscriptionCount() < upstreamTopics) {
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("Subscribers did not attach within " + drainTimeout);
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private int attachedSubscribers(final SubscriptionMultiplexer subscriptionMultiplexer) {
+		return subscribedTopics().stream()
+				.mapToInt(subscriber -> subscriptionMultiplexer.subscriberCount(brokerName(subscriber), topic(subscriber)))
+				.sum();
+	}
+
+	// one subscriber index per distinct broker and topic that is subscribed to
+	private Set<Integer> subscribedTopics() {
+		return IntStream.range(0, subscribers)
+				.boxed()
+				.collect(Collectors.toMap(subscriber -> brokerName(subscriber) + '/' + topic(subscriber),
+						subscriber -> subscriber, (first, second) -> first))
+				.values().stream()
+				.collect(Collectors.toSet());
+	}
+
+	private long expectedDeliveries() {
+		long expected = 0;
+		for (int publisher = 0; publisher < publishers; publisher++) {
+			for (int subscriber = 0; subscriber < subscribers; subscriber++) {
+				if (publisher % topics == subscriber % topics && publisher % brokers == subscriber % brokers) {
+					expected += messagesPerPublisher;
+				}
+			}
+		}
+		return expected;
+	}
+
+	private String brokerName(final int index) {
+		return brokers == 1 ? BROKER_NAME : BROKER_NAME + "-" + index % brokers;
+	}
+
+	private String topic(final int index) {
+		return "loadtest-" + index % topics;
+	}
+
+	private String payload() {
+		final StringBuilder payload = new StringBuilder(payloadBytes).append(System.nanoTime()).append(':');
+		while (payload.length() < payloadBytes) {
+			payload.append('x');
+		}
+		return payload.toString();
+	}
+
+	private void record(final String payload) {
+		final long sentNanos = Long.parseLong(payload, 0, payload.indexOf(':'), 10);
+		latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos),
+				latencies.getHighestTrackableValue()));
+		received.increment();
+	}
+
+	private static long perSecond(final long count, final long nanos) {
+		return nanos <= 0 ? 0 : count * TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	private static long openSockets() throws IOException {
+		final Path fileDescriptors = Path.of("/proc/self/fd");
+		if (!Files.isDirectory(fileDescriptors)) {
+			return -1;
+		}
+		try (Stream<Path> descriptors = Files.list(fileDescriptors)) {
+			return descriptors.filter(descriptor -> {
+				try {
+					return Files.readSymbolicLink(descriptor).toString().startsWith("socket:");
+				} catch (IOException e) {
+					return false;
+				}
+			}).count();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.example.mqttbrokerapi.loadtest;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.mqtt.MqttConnectMessage;
+import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
+import io.netty.handler.codec.mqtt.MqttDecoder;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessage;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttProperties;
+import io.netty.handler.codec.mqtt.MqttPubReplyMessageVariableHeader;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttSubscribeMessage;
+import io.netty.handler.codec.mqtt.MqttTopicSubscription;
+import io.netty.handler.codec.mqtt.MqttUnsubscribeMessage;
+
+/**
+ * Minimal in-process MQTT 5 broker for load tests. It accepts every connection, acknowledges QoS 1
+ * and 2 publishes and routes them to all matching subscriptions at QoS 0. There are no sessions,
+ * retained messages or authentication.
+ */
+public final class StandInMqttBroker implements AutoCloseable {
+	private static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	private final Set<Channel> connections = ConcurrentHashMap.newKeySet();
+
+	private final AtomicLong clientIds = new AtomicLong();
+
+	private final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+
+	private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+
+	private final Channel serverChannel;
+
+	private StandInMqttBroker(final int port) throws InterruptedException {
+		serverChannel = new ServerBootstrap()
+				.group(bossGroup, workerGroup)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(final SocketChannel channel) {
+						channel.pipeline()
+								.addLast(new MqttDecoder(MAX_MESSAGE_BYTES))
+								.addLast(MqttEncoder.INSTANCE)
+								.addLast(new ConnectionHandler());
+					}
+				})
+				.bind("localhost", port)
+				.sync()
+				.channel();
+	}
+
+	public static StandInMqttBroker start(final int port) throws InterruptedException {
+		return new StandInMqttBroker(port);
+	}
+
+	public int port() {
+		return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+	}
+
+	public int subscriptionCount() {
+		return subscriptions.size();
+	}
+
+	public int connectionCount() {
+		return connections.size();
+	}
+
+	@Override
+	public void close() {
+		serverChannel.close().syncUninterruptibly();
+		bossGroup.shutdownGracefully();
+		workerGroup.shutdownGracefully().syncUninterruptibly();
+	}
+
+	private void route(final MqttPublishMessage publish) {
+		final String topicName = publish.variableHeader().topicName();
+		final MqttTopic topic = MqttTopic.of(topicName);
+		for (Subscription subscription : subscriptions) {
+			if (subscription.topicFilter().matches(topic)) {
+				subscription.channel().writeAndFlush(new MqttPublishMessage(
+						new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0),
+						new MqttPublishVariableHeader(topicName, 0, publish.variableHeader().properties()),
+						publish.payload().retainedDuplicate()));
+			}
+		}
+	}
+
+	private static MqttMessage reply(final MqttMessageType type, final MqttQoS qos, final int packetId) {
+		return new MqttMessage(new MqttFixedHeader(type, false, qos, false, 0),
+				new MqttPubReplyMessageVariableHeader(packetId, MqttPubReplyMessageVariableHeader.REASON_CODE_OK,
+						MqttProperties.NO_PROPERTIES));
+	}
+
+	private record Subscription(Channel channel, MqttTopicFilter topicFilter) {
+	}
+
+	private final class ConnectionHandler extends SimpleChannelInboundHandler<MqttMessage> {
+		@Override
+		public void channelActive(final ChannelHandlerContext ctx) {
+			connections.add(ctx.channel());
+		}
+
+		@Override
+		public void channelInactive(final ChannelHandlerContext ctx) {
+			connections.remove(ctx.channel());
+			subscriptions.removeIf(subscription -> subscription.channel() == ctx.channel());
+		}
+
+		@Override
+		protected void channelRead0(final ChannelHandlerContext ctx, final MqttMessage message) {
+			if (message.decoderResult().isFailure()) {
+				ctx.close();
+				return;
+			}
+			switch (message.fixedHeader().messageType()) {
+				case CONNECT -> connect(ctx, (MqttConnectMessage) message);
+				case PUBLISH -> publish(ctx, (MqttPublishMessage) message);
+				case PUBREL -> ctx.writeAndFlush(reply(MqttMessageType.PUBCOMP, MqttQoS.AT_MOST_ONCE,
+						((MqttMessageIdVariableHeader) message.variableHeader()).messageId()));
+				case SUBSCRIBE -> subscribe(ctx, (MqttSubscribeMessage) message);
+				case UNSUBSCRIBE -> unsubscribe(ctx, (MqttUnsubscribeMessage) message);
+				case PINGREQ -> ctx.writeAndFlush(new MqttMessage(
+						new MqttFixedHeader(MqttMessageType.PINGRESP, false, MqttQoS.AT_MOST_ONCE, false, 0)));
+				case DISCONNECT -> ctx.close();
+				default -> {
+				}
+			}
+		}
+
+		@Override
+		public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) {
+			ctx.close();
+		}
+
+		private void connect(final ChannelHandlerContext ctx, final MqttConnectMessage connect) {
+			final MqttProperties properties = new MqttProperties();
+			if (connect.payload().clientIdentifier().isEmpty()) {
+				properties.add(new MqttProperties.StringProperty(MqttProperties.MqttPropertyType.ASSIGNED_CLIENT_IDENTIFIER.value(),
+						"stand-in-" + clientIds.incrementAndGet()));
+			}
+			ctx.writeAndFlush(MqttMessageBuilders.connAck()
+					.returnCode(MqttConnectReturnCode.CONNECTION_ACCEPTED)
+					.sessionPresent(false)
+					.properties(properties)
+					.build());
+		}
+
+		private void publish(final ChannelHandlerContext ctx, final MqttPublishMessage publish) {
+			route(publish);
+			final int packetId = publish.variableHeader().packetId();
+			switch (publish.fixedHeader().qosLevel()) {
+				case AT_LEAST_ONCE -> ctx.writeAndFlush(reply(MqttMessageType.PUBACK, MqttQoS.AT_MOST_ONCE, packetId));
+				case EXACTLY_ONCE -> ctx.writeAndFlush(reply(MqttMessageType.PUBREC, MqttQoS.AT_MOST_ONCE, packetId));
+				default -> {
+				}
+			}
+		}
+
+		private void subscribe(final ChannelHandlerContext ctx, final MqttSubscribeMessage subscribe) {
+			final MqttMessageBuilders.SubAckBuilder subAck = MqttMessageBuilders.subAck()
+					.packetId(subscribe.idAndPropertiesVariableHeader().messageId());
+			for (MqttTopicSubscription topicSubscription : subscribe.payload().topicSubscriptions()) {
+				subscriptions.add(new Subscription(ctx.channel(), MqttTopicFilter.of(topicSubscription.topicName())));
+				subAck.addGrantedQos(MqttQoS.AT_MOST_ONCE);
+			}
+			ctx.writeAndFlush(subAck.build());
+		}
+
+		private void unsubscribe(final ChannelHandlerContext ctx, final MqttUnsubscribeMessage unsubscribe) {
+			final MqttMessageBuilders.UnsubAckBuilder unsubAck = MqttMessageBuilders.unsubAck()
+					.packetId(unsubscribe.idAndPropertiesVariableHeader().messageId());
+			for (String topicFilter : unsubscribe.payload().topics()) {
+				final MqttTopicFilter filter = MqttTopicFilter.of(topicFilter);
+				subscriptions.removeIf(subscription -> subscription.channel() == ctx.channel()
+						&& subscription.topicFilter().equals(filter));
+				unsubAck.addReasonCode((short) 0);
+			}
+			ctx.writeAndFlush(unsubAck.build());
+		}
+	}
+}
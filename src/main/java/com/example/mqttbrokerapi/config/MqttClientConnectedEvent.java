@@ -0,0 +1,11 @@
+package com.example.mqttbrokerapi.config;
+
+import com.hivemq.client.mqtt.MqttClientConfig;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class MqttClientConnectedEvent {
+    private final MqttClientConfig clientConfig;
+}
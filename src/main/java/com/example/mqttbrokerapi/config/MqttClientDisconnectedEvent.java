@@ -0,0 +1,14 @@
+package com.example.mqttbrokerapi.config;
+
+import com.hivemq.client.mqtt.MqttClientConfig;
+import com.hivemq.client.mqtt.lifecycle.MqttDisconnectSource;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class MqttClientDisconnectedEvent {
+    private final MqttClientConfig clientConfig;
+    /** Who ended the connection, or failed to open it; {@code USER} for a disconnect of our own. */
+    private final MqttDisconnectSource source;
+}
@@ -1,16 +1,23 @@
 package com.example.mqttbrokerapi.config;
 
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.service.MqttMetrics;
 import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttClientExecutorConfig;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
-import com.hivemq.client.mqtt.mqtt5.Mqtt5Client;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5ClientBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5RetainHandling;
 import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
@@ -24,6 +31,19 @@ public class MqttConfig {
 
     public static final String TRYING_TO_RECONNECT_TO_THE_BROKER = "Trying to reconnect to the broker";
 
+    private final MqttMetrics mqttMetrics;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final MqttClientExecutorConfig mqttClientExecutorConfig;
+
+    public MqttConfig(MqttMetrics mqttMetrics, ApplicationEventPublisher eventPublisher,
+                      MqttClientExecutorConfig mqttClientExecutorConfig) {
+        this.mqttMetrics = mqttMetrics;
+        this.eventPublisher = eventPublisher;
+        this.mqttClientExecutorConfig = mqttClientExecutorConfig;
+    }
+
     @Bean
     public Function<BrokerConfiguration, Mqtt5ReactorClient> Mqtt5ClientFactory() {
         return this::mqtt5Client;
@@ -40,38 +60,67 @@ public class MqttConfig {
     @Value("${broker.credentials.password}")
     private String password;
 
+    @Value("${broker.client.ssl:true}")
+    private boolean ssl;
+
+    @Value("${broker.circuit.backoff.initial:PT1S}")
+    private Duration reconnectInitialDelay;
+
+    @Value("${broker.circuit.backoff.max:PT1M}")
+    private Duration reconnectMaxDelay;
+
 
     @Bean
     @Scope(value = "prototype")
     public Mqtt5Subscribe mqtt5Subscribe(final String topic) {
+        // parses $share/{group}/{filter} into a shared filter, which must not set no local
+        // and never gets retained messages from the broker
+        final MqttTopicFilter topicFilter = MqttTopicFilter.of(topic);
         return Mqtt5Subscribe.builder()
-                .topicFilter(topic)
+                .topicFilter(topicFilter)
                 .qos(MqttQos.AT_LEAST_ONCE)
+                .noLocal(false)
+                .retainHandling(topicFilter.isShared() ? Mqtt5RetainHandling.DO_NOT_SEND : Mqtt5RetainHandling.SEND)
                 .build();
     }
     @Bean
     @Scope(value = "prototype")
     public Mqtt5ReactorClient mqtt5Client(final BrokerConfiguration brokerConfiguration) {
-        Mqtt5Client mqtt5ClientBuilder =  MqttClient.builder()
+        Mqtt5ClientBuilder mqtt5ClientBuilder =  MqttClient.builder()
                 .useMqttVersion5()
                 .serverHost(brokerConfiguration.getHostName())
                 .serverPort(brokerConfiguration.getPort())
-                .automaticReconnectWithDefaultConfig()
-                .addConnectedListener(context -> LOGGER.info("Connected to HiveMQ cloud broker"))
+                .executorConfig(mqttClientExecutorConfig)
+                // reconnects with exponential backoff and jitter, paced like the circuit breaker
+                .automaticReconnect()
+                .initialDelay(reconnectInitialDelay.toMillis(), TimeUnit.MILLISECONDS)
+                .maxDelay(reconnectMaxDelay.toMillis(), TimeUnit.MILLISECONDS)
+                .applyAutomaticReconnect()
+                .addConnectedListener(context -> {
+                    LOGGER.info("Connected to HiveMQ cloud broker");
+                    mqttMetrics.clientConnected(context.getClientConfig());
+                    eventPublisher.publishEvent(new MqttClientConnectedEvent(context.getClientConfig()));
+                })
                 .addDisconnectedListener(context -> {
-                    if(context.getReconnector().isReconnect()) {
+                    final boolean reconnect = context.getReconnector().isReconnect();
+                    if(reconnect) {
                         LOGGER.warn(TRYING_TO_RECONNECT_TO_THE_BROKER);
                     } else {
                         LOGGER.info(DISCONNECTED_FROM_THE_BROKER);
                     }
-                })
-                .sslWithDefaultConfig()
+                    mqttMetrics.clientDisconnected(context.getClientConfig(), reconnect);
+                    eventPublisher.publishEvent(new MqttClientDisconnectedEvent(context.getClientConfig(),
+                            context.getSource()));
+                });
+        if(ssl) {
+            mqtt5ClientBuilder = mqtt5ClientBuilder.sslWithDefaultConfig();
+        }
+
+        return Mqtt5ReactorClient.from(mqtt5ClientBuilder
                 .simpleAuth()
                 .password(password.getBytes())
                 .username(userName)
                 .applySimpleAuth()
-                .buildRx();
-
-        return Mqtt5ReactorClient.from(mqtt5ClientBuilder);
+                .buildRx());
     }
 }
@@ -0,0 +1,53 @@
+package com.example.mqttbrokerapi.config;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import com.hivemq.client.mqtt.MqttClientExecutorConfig;
+import com.hivemq.client.mqtt.MqttClientExecutorConfigBuilder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ThreadPerTaskExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Threads shared by all MQTT clients, however many brokers there are: one Netty event loop of
+ * {@code broker.executor.netty-threads} threads carries every connection, and one scheduler of
+ * {@code broker.executor.application-threads} threads runs the client callbacks and the subscription
+ * streams. 0 leaves the thread count to the client library and Reactor, one per core.
+ */
+@Configuration
+public class MqttExecutorConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttExecutorConfig.class);
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler mqttScheduler(@Value("${broker.executor.application-threads:0}") final int applicationThreads) {
+        return Schedulers.newParallel("mqtt-app",
+                applicationThreads > 0 ? applicationThreads : Schedulers.DEFAULT_POOL_SIZE, true);
+    }
+
+    @Bean
+    public MqttClientExecutorConfig mqttClientExecutorConfig(final Scheduler mqttScheduler,
+                                                             @Value("${broker.executor.netty-threads:0}") final int nettyThreads) {
+        // clients with the same executor and thread count share one event loop group
+        MqttClientExecutorConfigBuilder builder = MqttClientExecutorConfig.builder()
+                .nettyExecutor(new ThreadPerTaskExecutor(new DefaultThreadFactory("mqtt-netty", true)))
+                .applicationScheduler(io.reactivex.schedulers.Schedulers.from(task -> {
+                    try {
+                        mqttScheduler.schedule(task);
+                    } catch (RejectedExecutionException e) {
+                        // callbacks of clients still disconnecting while the application shuts down
+                        LOGGER.debug("Dropping MQTT client callback after shutdown", e);
+                    }
+                }));
+        if (nettyThreads > 0) {
+            builder = builder.nettyThreads(nettyThreads);
+        }
+        return builder.build();
+    }
+}
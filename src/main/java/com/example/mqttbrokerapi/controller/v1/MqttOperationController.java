@@ -1,29 +1,71 @@
 package com.example.mqttbrokerapi.controller.v1;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
+import com.example.mqttbrokerapi.dto.BrokerConfigBulkResultDTO;
+import com.example.mqttbrokerapi.dto.BrokerConfigEntryDTO;
+import com.example.mqttbrokerapi.dto.BrokerConfigPageDTO;
+import com.example.mqttbrokerapi.dto.ConsumerGroupDTO;
 import com.example.mqttbrokerapi.dto.CreateBrokerConfigDTO;
+import com.example.mqttbrokerapi.dto.DeliveryLatencyDTO;
+import com.example.mqttbrokerapi.dto.MessageEnvelopeDTO;
+import com.example.mqttbrokerapi.dto.PublishBatchResultDTO;
+import com.example.mqttbrokerapi.dto.PublishMessageDTO;
+import com.example.mqttbrokerapi.dto.SubscribeOptionsDTO;
 import com.example.mqttbrokerapi.exception.BrokerConfigException;
-import com.example.mqttbrokerapi.service.ClientConnectWorkFlow;
+import com.example.mqttbrokerapi.exception.LatestValueNotFoundException;
+import com.example.mqttbrokerapi.exception.PublishException;
+import com.example.mqttbrokerapi.exception.PublishQueueFullException;
+import com.example.mqttbrokerapi.exception.RetryLaterException;
+import com.example.mqttbrokerapi.service.AdmissionControl;
+import com.example.mqttbrokerapi.service.LastValueCache;
+import com.example.mqttbrokerapi.service.MessageEncoding;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
 import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer.OverflowStrategy;
 import com.example.mqttbrokerapi.service.SubscriptionWorkFlow;
 import com.example.mqttbrokerapi.util.Message;
 import com.google.common.base.Strings;
-import com.hivemq.client.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAckReasonCode;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttSharedTopicFilter;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5RetainHandling;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -31,20 +73,97 @@ import reactor.core.publisher.Mono;
 @RequestMapping("/mqtt")
 public class MqttOperationController {
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttOperationController.class);
-    private final Function<BrokerConfiguration, Mqtt5ReactorClient> mqtt5ClientFactory;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private final MqttClientRegistry mqttClientRegistry;
     private final SubscriptionWorkFlow subscriptionWorkFlow;
-    private final ClientConnectWorkFlow clientConnectWorkFlow;
     private final PublisherWorkFlow publisherWorkFlow;
     private final BrokerConfigRepository brokerConfigRepository;
+    private final LastValueCache lastValueCache;
+    private final AdmissionControl admissionControl;
 
     public MqttOperationController(BrokerConfigRepository brokerConfigRepository,
-            Function<BrokerConfiguration, Mqtt5ReactorClient> mqtt5ClientFactory, SubscriptionWorkFlow subscriptionWorkFlow,
-            ClientConnectWorkFlow clientConnectWorkFlow, PublisherWorkFlow publisherWorkFlow) {
+            MqttClientRegistry mqttClientRegistry, SubscriptionWorkFlow subscriptionWorkFlow,
+            PublisherWorkFlow publisherWorkFlow, LastValueCache lastValueCache, AdmissionControl admissionControl) {
         this.brokerConfigRepository = brokerConfigRepository;
-        this.mqtt5ClientFactory = mqtt5ClientFactory;
+        this.mqttClientRegistry = mqttClientRegistry;
         this.subscriptionWorkFlow = subscriptionWorkFlow;
-        this.clientConnectWorkFlow = clientConnectWorkFlow;
         this.publisherWorkFlow = publisherWorkFlow;
+        this.lastValueCache = lastValueCache;
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * Upserts the broker configurations of every NDJSON line as they stream in. Lines without a broker
+     * or host name are counted as rejected.
+     */
+    @PutMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<BrokerConfigBulkResultDTO> putBrokerConfigurations(@RequestBody Flux<BrokerConfigEntryDTO> entries) {
+        final AtomicLong rejected = new AtomicLong();
+        return brokerConfigRepository
+                .persistBrokerConfigurations(entries
+                        .filter(entry -> {
+                            final boolean valid = !Strings.isNullOrEmpty(entry.getBrokerName())
+                                    && !Strings.isNullOrEmpty(entry.getHostName());
+                            if (!valid) {
+                                rejected.incrementAndGet();
+                            }
+                            return valid;
+                        })
+                        .map(entry -> new NamedBrokerConfiguration(entry.getBrokerName(), BrokerConfiguration.builder()
+                                .hostName(entry.getHostName())
+                                .port(entry.getPort())
+                                .connections(entry.getConnections()).build())))
+                .map(applied -> new BrokerConfigBulkResultDTO(applied, rejected.get()));
+    }
+
+    /**
+     * Deletes the brokers named by every NDJSON line as they stream in; {@code applied} counts the ones
+     * that existed.
+     */
+    @DeleteMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<BrokerConfigBulkResultDTO> deleteBrokerConfigurations(@RequestBody Flux<BrokerConfigEntryDTO> entries) {
+        final AtomicLong rejected = new AtomicLong();
+        return brokerConfigRepository
+                .deleteBrokerConfigurations(entries
+                        .filter(entry -> {
+                            final boolean valid = !Strings.isNullOrEmpty(entry.getBrokerName());
+                            if (!valid) {
+                                rejected.incrementAndGet();
+                            }
+                            return valid;
+                        })
+                        .map(BrokerConfigEntryDTO::getBrokerName))
+                .map(applied -> new BrokerConfigBulkResultDTO(applied, rejected.get()));
+    }
+
+    /**
+     * Lists the broker configurations ordered by name, a page of {@code limit} at a time; pass the
+     * {@code next} of a page as {@code after} to get the following one; the last page has no {@code next}. {@code host}, and optionally
+     * {@code port}, lists only the brokers on that host.
+     */
+    @GetMapping
+    public Mono<BrokerConfigPageDTO> listBrokerConfigurations(@RequestParam(value = "host", required = false) final String host,
+                                                              @RequestParam(value = "port", required = false) final Integer port,
+                                                              @RequestParam(value = "after", required = false) final String after,
+                                                              @RequestParam(value = "limit", defaultValue = "100") final int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return Mono.error(new ServerWebInputException("limit must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        if (port != null && Strings.isNullOrEmpty(host)) {
+            return Mono.error(new ServerWebInputException("port requires a host"));
+        }
+        return brokerConfigRepository
+                // one more than the page tells whether another page follows
+                .listBrokerConfigurations(Strings.emptyToNull(host), port, after, limit + 1)
+                .map(named -> BrokerConfigEntryDTO.builder()
+                        .brokerName(named.getBrokerName())
+                        .hostName(named.getBrokerConfiguration().getHostName())
+                        .port(named.getBrokerConfiguration().getPort())
+                        .connections(named.getBrokerConfiguration().getConnections()).build())
+                .collectList()
+                .map(brokers -> brokers.size() > limit
+                        ? new BrokerConfigPageDTO(brokers.subList(0, limit), brokers.get(limit - 1).getBrokerName())
+                        : new BrokerConfigPageDTO(brokers, null));
     }
 
     @PutMapping("/{broker-name}")
@@ -59,7 +178,8 @@ public class MqttOperationController {
 
         final BrokerConfiguration brokerConfiguration = BrokerConfiguration.builder()
                 .hostName(createBrokerConfigDTO.getHostName())
-                .port(createBrokerConfigDTO.getPort()).build();
+                .port(createBrokerConfigDTO.getPort())
+                .connections(createBrokerConfigDTO.getConnections()).build();
         return brokerConfigRepository.persistBrokerConfiguration(brokerName, brokerConfiguration);
     }
 
@@ -77,54 +197,374 @@ public class MqttOperationController {
 
     @PostMapping("/{broker-name}/send/{topic-name}")
     public Mono<Void> publishToTheBroker(@PathVariable("broker-name") final String brokerName,
-                                         @PathVariable("topic-name") final String topicName,@RequestBody String message) {
+                                         @PathVariable("topic-name") final String topicName,
+                                         @RequestParam(value = "qos", defaultValue = "1") final int qos,
+                                         @RequestParam(value = "ack", defaultValue = "false") final boolean ack,
+                                         @RequestParam(value = "ordered", defaultValue = "true") final boolean ordered,
+                                         @RequestBody String message) {
         Objects.requireNonNull(brokerName);
         if(Strings.isNullOrEmpty(message)) {
             return Mono.empty();
         }
+        return toQos(qos)
+                .flatMap(mqttQos -> publish(brokerName, topicName, ordered, ack, mqtt5ReactorClient ->
+                        publisherWorkFlow.publishWorkFlow(brokerName, mqtt5ReactorClient, message, topicName, mqttQos, ack)));
+    }
+
+    @PostMapping(value = "/{broker-name}/send/{topic-name}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<Void> publishBinaryToTheBroker(@PathVariable("broker-name") final String brokerName,
+                                               @PathVariable("topic-name") final String topicName,
+                                               @RequestParam(value = "qos", defaultValue = "1") final int qos,
+                                               @RequestParam(value = "ack", defaultValue = "false") final boolean ack,
+                                               @RequestParam(value = "ordered", defaultValue = "true") final boolean ordered,
+                                               @RequestBody Flux<DataBuffer> body) {
+        Objects.requireNonNull(brokerName);
+        return toQos(qos)
+                .flatMap(mqttQos -> DataBufferUtils.join(body)
+                        .flatMap(payload -> {
+                            // the request buffer is released before the queued publish is written
+                            final ByteBuffer copy = copyOf(payload);
+                            DataBufferUtils.release(payload);
+                            return publish(brokerName, topicName, ordered, ack, mqtt5ReactorClient -> publisherWorkFlow
+                                    .publishWorkFlow(brokerName, mqtt5ReactorClient, copy, topicName, mqttQos, ack));
+                        }));
+    }
+
+    /**
+     * Publishes every NDJSON line as one message. Messages beyond a publish rate limit are skipped and
+     * counted as rejected.
+     */
+    @PostMapping(value = "/{broker-name}/send", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<PublishBatchResultDTO> publishBatchToTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                               @RequestParam(value = "qos", defaultValue = "1") final int qos,
+                                                               @RequestParam(value = "ordered", defaultValue = "true") final boolean ordered,
+                                                               @RequestBody Flux<PublishMessageDTO> messages) {
+        Objects.requireNonNull(brokerName);
+        final AtomicLong throttled = new AtomicLong();
+        final Flux<PublishMessageDTO> admitted = messages.filter(message -> {
+            if (message.getTopic() == null || admissionControl.tryAdmitPublish(brokerName, message.getTopic())) {
+                return true;
+            }
+            throttled.incrementAndGet();
+            return false;
+        });
+        return toQos(qos)
+                .flatMap(mqttQos -> brokerConfigRepository
+                        .lookupBrokerConfiguration(brokerName)
+                        .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
+                        .flatMap(brokerConfiguration -> mqttClientRegistry.withConnections(brokerName, brokerConfiguration,
+                                publishConnections -> publisherWorkFlow.publishBatchWorkFlow(brokerName, publishConnections,
+                                        admitted, mqttQos, ordered))
+                                .next()))
+                .doOnNext(result -> result.setRejected(result.getRejected() + throttled.get()));
+    }
+
+    @GetMapping("/{broker-name}/get/{topic-name}")
+    public Flux<String> subscribeFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                               @PathVariable("topic-name") final String topicName,
+                                               @ModelAttribute final SubscribeOptionsDTO options) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, List.of(topicName), toTopicFilter(topicName, options), options,
+                options.getFromOffset(), subscriptionWorkFlow::subscriptionWorkFlow);
+    }
+
+    /**
+     * Streams server-sent events whose ids are the message offsets, so a reconnecting {@code EventSource}
+     * resumes after the last event it saw through {@code Last-Event-ID}.
+     */
+    @GetMapping(value = "/{broker-name}/get/{topic-name}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> subscribeEventsFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                                      @PathVariable("topic-name") final String topicName,
+                                                                      @ModelAttribute final SubscribeOptionsDTO options,
+                                                                      @RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventId) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, List.of(topicName), toTopicFilter(topicName, options), options,
+                resumeFrom(options, lastEventId), subscriptionWorkFlow::messageWorkFlow)
+                .map(receivedMessage -> ServerSentEvent.builder(new String(
+                                receivedMessage.mqtt5Publish().getPayloadAsBytes(), StandardCharsets.UTF_8))
+                        .id(Long.toString(receivedMessage.offset()))
+                        .build());
+    }
+
+    /**
+     * Streams one JSON envelope per line with the topic, QoS, offset, receive time and user properties
+     * of each message.
+     */
+    @GetMapping(value = "/{broker-name}/get/{topic-name}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MessageEnvelopeDTO> subscribeEnvelopesFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                                   @PathVariable("topic-name") final String topicName,
+                                                                   @ModelAttribute final SubscribeOptionsDTO options) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, List.of(topicName), toTopicFilter(topicName, options), options,
+                options.getFromOffset(), subscriptionWorkFlow::messageWorkFlow)
+                .map(MessageEncoding::envelope);
+    }
+
+    /**
+     * Streams the same fields as the envelopes in length-prefixed binary frames, see {@link MessageEncoding}.
+     */
+    @GetMapping(value = "/{broker-name}/get/{topic-name}", produces = MessageEncoding.FRAMES_VALUE)
+    public Flux<DataBuffer> subscribeFramesFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                         @PathVariable("topic-name") final String topicName,
+                                                         @ModelAttribute final SubscribeOptionsDTO options) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, List.of(topicName), toTopicFilter(topicName, options), options,
+                options.getFromOffset(), subscriptionWorkFlow::messageWorkFlow)
+                .map(receivedMessage -> DefaultDataBufferFactory.sharedInstance.wrap(MessageEncoding.frame(receivedMessage)));
+    }
+
+    /**
+     * Streams the messages of several topic filters in one stream of envelopes, each tagged with its topic.
+     * Every {@code topic} gets the {@code qos} at the same position, or the only one given, default 1; the
+     * filters are subscribed with a single SUBSCRIBE.
+     */
+    @GetMapping(value = "/{broker-name}/get", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<MessageEnvelopeDTO> subscribeManyFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                              @RequestParam(value = "topic", required = false) final List<String> topicFilters,
+                                                              @RequestParam(value = "qos", required = false) final List<Integer> qos,
+                                                              @ModelAttribute final SubscribeOptionsDTO options) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, topicFilters, toSubscriptions(topicFilters, qos, options), options,
+                options.getFromOffset(), subscriptionWorkFlow::messageWorkFlow)
+                .map(MessageEncoding::envelope);
+    }
+
+    /**
+     * Streams the messages of several topic filters as server-sent events named after their topic, with
+     * the message offsets as ids.
+     */
+    @GetMapping(value = "/{broker-name}/get", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> subscribeManyEventsFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                                          @RequestParam(value = "topic", required = false) final List<String> topicFilters,
+                                                                          @RequestParam(value = "qos", required = false) final List<Integer> qos,
+                                                                          @ModelAttribute final SubscribeOptionsDTO options,
+                                                                          @RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventId) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, topicFilters, toSubscriptions(topicFilters, qos, options), options,
+                resumeFrom(options, lastEventId), subscriptionWorkFlow::messageWorkFlow)
+                .map(receivedMessage -> ServerSentEvent.builder(new String(
+                                receivedMessage.mqtt5Publish().getPayloadAsBytes(), StandardCharsets.UTF_8))
+                        .id(Long.toString(receivedMessage.offset()))
+                        .event(receivedMessage.mqtt5Publish().getTopic().toString())
+                        .build());
+    }
+
+    @GetMapping(value = "/{broker-name}/get/{topic-name}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Flux<DataBuffer> subscribeBinaryFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                         @PathVariable("topic-name") final String topicName,
+                                                         @ModelAttribute final SubscribeOptionsDTO options) {
+        Objects.requireNonNull(brokerName);
+        return subscribe(brokerName, List.of(topicName), toTopicFilter(topicName, options), options,
+                options.getFromOffset(), subscriptionWorkFlow::binarySubscriptionWorkFlow)
+                .map(DefaultDataBufferFactory.sharedInstance::wrap);
+    }
+
+    /**
+     * Lists the consumer groups with streams on the broker, with their filter and number of members.
+     */
+    @GetMapping("/{broker-name}/groups")
+    public Flux<ConsumerGroupDTO> consumerGroupsOfTheBroker(@PathVariable("broker-name") final String brokerName) {
+        Objects.requireNonNull(brokerName);
         return brokerConfigRepository
                 .lookupBrokerConfiguration(brokerName)
                 .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
-                .map(mqtt5ClientFactory)
+                .flatMapIterable(brokerConfiguration -> subscriptionWorkFlow.consumerGroups(brokerName));
+    }
+
+    /**
+     * Lists the delivery latency histogram of every topic of the broker with stamped messages.
+     */
+    @GetMapping("/{broker-name}/latency")
+    public Flux<DeliveryLatencyDTO> deliveryLatencyOfTheBroker(@PathVariable("broker-name") final String brokerName) {
+        Objects.requireNonNull(brokerName);
+        return brokerConfigRepository
+                .lookupBrokerConfiguration(brokerName)
                 .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
-                .flatMap(mqtt5ReactorClient -> clientConnectWorkFlow.connectSubscriber(mqtt5ReactorClient).doOnSuccess(theConnectionAck -> {
-                    if (theConnectionAck != null) {
-                        final Mqtt5ConnAckReasonCode theConnectionAckReasonCode =
-                                theConnectionAck.getReasonCode();
-                        LOGGER.info("Connecting publisher received ACK code: {}", theConnectionAckReasonCode);
-                         publisherWorkFlow.publishWorkFlow(mqtt5ReactorClient, message, topicName).subscribe();
-                    }
-                }).doOnError(throwable -> new BrokerConfigException(throwable.getMessage())).then()).then();
+                .flatMapIterable(brokerConfiguration -> subscriptionWorkFlow.deliveryLatencies(brokerName));
     }
 
-    @GetMapping("/{broker-name}/get/{topic-name}")
-    public Flux<String> subscribeFromTheBroker(@PathVariable("broker-name") final String brokerName,
-                                         @PathVariable("topic-name") final String topicName) {
+    /**
+     * Answers the latest message of the topic received by any active subscription on the broker,
+     * without connecting or subscribing; {@code 404} if there is none.
+     */
+    @GetMapping("/{broker-name}/latest/{topic-name}")
+    public Mono<String> latestFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                           @PathVariable("topic-name") final String topicName) {
+        Objects.requireNonNull(brokerName);
+        return latest(brokerName, topicName)
+                .map(mqtt5Publish -> new String(mqtt5Publish.getPayloadAsBytes(), StandardCharsets.UTF_8));
+    }
+
+    @GetMapping(value = "/{broker-name}/latest/{topic-name}", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<DataBuffer> latestBinaryFromTheBroker(@PathVariable("broker-name") final String brokerName,
+                                                      @PathVariable("topic-name") final String topicName) {
         Objects.requireNonNull(brokerName);
-         return brokerConfigRepository
+        return latest(brokerName, topicName)
+                .map(mqtt5Publish -> DefaultDataBufferFactory.sharedInstance.wrap(mqtt5Publish.getPayloadAsBytes()));
+    }
+
+    /**
+     * Answers {@code 503} for an open circuit and {@code 429} for a reached limit with their
+     * {@code Retry-After} header, which the default error handling would leave out.
+     */
+    @ExceptionHandler(RetryLaterException.class)
+    public ResponseEntity<ProblemDetail> retryLater(final RetryLaterException exception) {
+        return ResponseEntity.status(exception.getStatusCode())
+                .headers(exception.getHeaders())
+                .body(exception.getBody());
+    }
+
+    private Mono<Mqtt5Publish> latest(final String brokerName, final String topicName) {
+        return Mono.fromSupplier(() -> lastValueCache.get(brokerName, topicName))
+                .flatMap(latest -> latest.map(Mono::just)
+                        .orElseGet(() -> Mono.error(new LatestValueNotFoundException(brokerName, topicName))));
+    }
+
+    private Mono<Mqtt5ReactorClient> acquireClient(final String brokerName, final String topicName,
+                                                   final boolean ordered, final boolean awaitConnection) {
+        return brokerConfigRepository
                 .lookupBrokerConfiguration(brokerName)
-                 .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
-                .map(mqtt5ClientFactory)
-                 .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
-                 .flatMapMany(mqtt5ReactorClient ->
-                         clientConnectWorkFlow.connectSubscriber(mqtt5ReactorClient)
-                         .doOnSuccess(theConnectionAck -> {
-                             if (theConnectionAck != null) {
-                                 final Mqtt5ConnAckReasonCode theConnectionAckReasonCode =
-                                         theConnectionAck.getReasonCode();
-                                 LOGGER.info("Connecting subscriber to broker received ACK code: {}", theConnectionAckReasonCode);
-                             }
-                         })
-                         .retry(3)
-                         .doOnError(throwable -> new BrokerConfigException(throwable.getMessage()))
-                         .flatMapMany(mqtt5ConnAck ->
-                                 subscriptionWorkFlow
-                                         .subscriptionWorkFlow(mqtt5ReactorClient, topicName)
-                                 .share()
-                                 .doOnSubscribe(subscription -> LOGGER.debug("Client subscribed"))
-                                 .doOnCancel(() -> LOGGER.debug("Subscription cancelled"))));
+                .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
+                .flatMap(brokerConfiguration -> awaitConnection
+                        ? mqttClientRegistry.acquire(brokerName, brokerConfiguration, topicName, ordered)
+                        : mqttClientRegistry.acquireWithoutWaiting(brokerName, brokerConfiguration, topicName, ordered));
     }
 
+    /**
+     * Queues the publish and, in ack mode, completes once the broker acknowledged it (PUBACK for QoS 1,
+     * PUBCOMP for QoS 2, the socket write for QoS 0). Otherwise the response completes once the message
+     * is queued, or spooled without waiting for the connection, and failures are only logged and counted
+     * by the publisher. Publishes with {@code ordered} keep their order per topic across the broker's
+     * connections; the others go to the least busy connection.
+     */
+    private Mono<Void> publish(final String brokerName, final String topicName, final boolean ordered, final boolean ack,
+                               final Function<Mqtt5ReactorClient, Mono<Mqtt5PublishResult>> publication) {
+        return admissionControl.admitPublish(brokerName, topicName)
+                .then(acquireClient(brokerName, topicName, ordered, ack || !publisherWorkFlow.spoolsWhileDisconnected()))
+                .flatMap(mqtt5ReactorClient -> {
+                    final Mono<Mqtt5PublishResult> result = publication.apply(mqtt5ReactorClient);
+                    if (!ack) {
+                        return result.then();
+                    }
+                    return result
+                            .flatMap(pubResult -> pubResult.getError()
+                                    .map(throwable -> Mono.<Void>error(new PublishException(throwable.getMessage())))
+                                    .orElseGet(Mono::empty))
+                            .onErrorMap(throwable -> !(throwable instanceof PublishException
+                                            || throwable instanceof PublishQueueFullException),
+                                    throwable -> new PublishException(throwable.getMessage()));
+                });
+    }
 
+    private static Mono<MqttQos> toQos(final int qos) {
+        final MqttQos mqttQos = MqttQos.fromCode(qos);
+        return mqttQos == null
+                ? Mono.error(new ServerWebInputException("qos must be 0, 1 or 2"))
+                : Mono.just(mqttQos);
+    }
 
+    /**
+     * The topic filter to subscribe to: the topic itself, or the shared subscription
+     * {@code $share/{group}/{topic}} of a consumer group.
+     */
+    private static Mono<String> toTopicFilter(final String topicName, final SubscribeOptionsDTO options) {
+        if (Strings.isNullOrEmpty(options.getGroup())) {
+            return Mono.just(topicName);
+        }
+        return toSubscriptions(List.of(topicName), null, options)
+                .map(subscriptions -> subscriptions.get(0).getTopicFilter().toString());
+    }
+
+    private static Mono<List<Mqtt5Subscription>> toSubscriptions(final List<String> topicFilters, final List<Integer> qos,
+                                                                 final SubscribeOptionsDTO options) {
+        if (topicFilters == null || topicFilters.isEmpty()) {
+            return Mono.error(new ServerWebInputException("at least one topic is required"));
+        }
+        if (qos != null && qos.size() > 1 && qos.size() != topicFilters.size()) {
+            return Mono.error(new ServerWebInputException("qos must be given once or once per topic"));
+        }
+        final String group = options.getGroup();
+        final boolean shared = !Strings.isNullOrEmpty(group);
+        if (shared && options.getFromOffset() != null) {
+            return Mono.error(new ServerWebInputException("fromOffset cannot be combined with a group"));
+        }
+        final List<Mqtt5Subscription> subscriptions = new ArrayList<>(topicFilters.size());
+        for (int i = 0; i < topicFilters.size(); i++) {
+            final MqttQos mqttQos = qos == null || qos.isEmpty() ? MqttQos.AT_LEAST_ONCE
+                    : MqttQos.fromCode(qos.get(qos.size() == 1 ? 0 : i));
+            if (mqttQos == null) {
+                return Mono.error(new ServerWebInputException("qos must be 0, 1 or 2"));
+            }
+            final MqttTopicFilter topicFilter;
+            try {
+                topicFilter = shared ? MqttSharedTopicFilter.of(group, topicFilters.get(i))
+                        : MqttTopicFilter.of(topicFilters.get(i));
+            } catch (IllegalArgumentException e) {
+                return Mono.error(new ServerWebInputException("invalid topic filter or group: " + e.getMessage()));
+            }
+            subscriptions.add(Mqtt5Subscription.builder()
+                    .topicFilter(topicFilter)
+                    .qos(mqttQos)
+                    .retainHandling(shared ? Mqtt5RetainHandling.DO_NOT_SEND : Mqtt5RetainHandling.SEND)
+                    .build());
+        }
+        return Mono.just(subscriptions);
+    }
+
+    private static Mono<Optional<OverflowStrategy>> toOverflowStrategy(final Integer bufferSize, final String overflow) {
+        if (bufferSize != null && bufferSize < 1) {
+            return Mono.error(new ServerWebInputException("buffer must be at least 1"));
+        }
+        if (Strings.isNullOrEmpty(overflow)) {
+            return Mono.just(Optional.empty());
+        }
+        try {
+            return Mono.just(Optional.of(OverflowStrategy.of(overflow)));
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ServerWebInputException("overflow must be drop-oldest, drop-newest, error or conflate"));
+        }
+    }
+
+    /**
+     * Where a server-sent event stream starts: {@code fromOffset}, or after the {@code Last-Event-ID} of a
+     * reconnecting {@code EventSource}.
+     */
+    private static Long resumeFrom(final SubscribeOptionsDTO options, final Long lastEventId) {
+        // a consumer group has no position of its own to resume from
+        return options.getFromOffset() == null && lastEventId != null && Strings.isNullOrEmpty(options.getGroup())
+                ? Long.valueOf(lastEventId + 1) : options.getFromOffset();
+    }
+
+    /**
+     * Validates the subscribe options and opens the subscription stream on the resolved filter, counted
+     * against the stream caps of the broker and its topic filters.
+     */
+    private <F, T> Flux<T> subscribe(final String brokerName, final List<String> topicFilters, final Mono<F> filter,
+                                     final SubscribeOptionsDTO options, final Long fromOffset,
+                                     final SubscriptionStream<F, T> subscription) {
+        return Mono.zip(filter, toOverflowStrategy(options.getBuffer(), options.getOverflow()))
+                .flatMapMany(request -> admissionControl.admitStream(brokerName, topicFilters, brokerConfigRepository
+                        .lookupBrokerConfiguration(brokerName)
+                        .switchIfEmpty(Mono.error(new BrokerConfigException(Message.INVALID_BROKER)))
+                        .flatMapMany(brokerConfiguration -> mqttClientRegistry.withClient(brokerName, brokerConfiguration,
+                                mqtt5ReactorClient -> subscription.open(brokerName, mqtt5ReactorClient, request.getT1(),
+                                                options.getBuffer(), request.getT2().orElse(null), fromOffset)
+                                        .doOnSubscribe(s -> LOGGER.debug("Client subscribed"))
+                                        .doOnCancel(() -> LOGGER.debug("Subscription cancelled"))))));
+    }
+
+    private static ByteBuffer copyOf(final DataBuffer dataBuffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(dataBuffer.readableByteCount());
+        dataBuffer.toByteBuffer(copy);
+        return copy;
+    }
+
+    /**
+     * One of the {@link SubscriptionWorkFlow} streams, on a single topic filter or on a list of subscriptions.
+     */
+    @FunctionalInterface
+    private interface SubscriptionStream<F, T> {
+        Flux<T> open(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient, F filter, Integer bufferSize,
+                     OverflowStrategy overflowStrategy, Long fromOffset);
+    }
 }
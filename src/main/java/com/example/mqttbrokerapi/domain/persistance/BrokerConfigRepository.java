@@ -1,5 +1,6 @@
 package com.example.mqttbrokerapi.domain.persistance;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface BrokerConfigRepository {
@@ -8,4 +9,22 @@ public interface BrokerConfigRepository {
     Mono<BrokerConfiguration> lookupBrokerConfiguration(final String brokerName);
 
     Mono<Void> deleteBrokerConfiguration(final String brokerName);
+
+    /**
+     * Upserts the configurations as they stream in and emits how many were stored once the stream completes.
+     */
+    Mono<Long> persistBrokerConfigurations(final Flux<NamedBrokerConfiguration> brokerConfigurations);
+
+    /**
+     * Deletes the brokers as their names stream in and emits how many existed once the stream completes.
+     */
+    Mono<Long> deleteBrokerConfigurations(final Flux<String> brokerNames);
+
+    /**
+     * Up to {@code limit} configurations ordered by broker name, starting after {@code after}, or from
+     * the first one if it is {@code null}. A {@code hostName}, and optionally a {@code port}, narrows them
+     * down to the brokers on that host through an index rather than a scan.
+     */
+    Flux<NamedBrokerConfiguration> listBrokerConfigurations(final String hostName, final Integer port,
+                                                            final String after, final int limit);
 }
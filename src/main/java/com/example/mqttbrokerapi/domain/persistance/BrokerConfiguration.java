@@ -12,4 +12,6 @@ import lombok.NoArgsConstructor;
 public class BrokerConfiguration {
     private String hostName;
     private int port;
+    /** Number of connections sharing the publish traffic to the broker; 0 means one. */
+    private int connections;
 }
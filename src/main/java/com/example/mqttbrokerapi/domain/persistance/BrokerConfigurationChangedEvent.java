@@ -0,0 +1,10 @@
+package com.example.mqttbrokerapi.domain.persistance;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class BrokerConfigurationChangedEvent {
+    private final String brokerName;
+}
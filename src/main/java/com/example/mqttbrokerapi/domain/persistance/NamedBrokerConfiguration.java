@@ -0,0 +1,11 @@
+package com.example.mqttbrokerapi.domain.persistance;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class NamedBrokerConfiguration {
+    private String brokerName;
+    private BrokerConfiguration brokerConfiguration;
+}
@@ -0,0 +1,84 @@
+package com.example.mqttbrokerapi.domain.persistance.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+
+/**
+ * Sorted broker names of a repository, overall and per host and per host and port, so that pages and
+ * host lookups read a sorted set from their cursor instead of scanning all configurations. Host names
+ * are matched ignoring case. Updates of the same broker must not run concurrently.
+ */
+final class BrokerConfigIndex {
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+
+    private final ConcurrentMap<String, NavigableSet<String>> byHost = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, NavigableSet<String>> byEndpoint = new ConcurrentHashMap<>();
+
+    void update(final String brokerName, final BrokerConfiguration previous, final BrokerConfiguration current) {
+        if (previous != null) {
+            remove(byHost, hostKey(previous.getHostName()), brokerName);
+            remove(byEndpoint, endpointKey(previous.getHostName(), previous.getPort()), brokerName);
+        }
+        if (current == null) {
+            names.remove(brokerName);
+            return;
+        }
+        names.add(brokerName);
+        add(byHost, hostKey(current.getHostName()), brokerName);
+        add(byEndpoint, endpointKey(current.getHostName(), current.getPort()), brokerName);
+    }
+
+    /**
+     * Up to {@code limit} names after {@code after}, of all brokers or those on the host and port.
+     */
+    List<String> page(final String hostName, final Integer port, final String after, final int limit) {
+        final NavigableSet<String> index = hostName == null ? names
+                : (port == null ? byHost.get(hostKey(hostName)) : byEndpoint.get(endpointKey(hostName, port)));
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        final List<String> page = new ArrayList<>(Math.min(limit, 256));
+        for (String brokerName : after == null ? index : index.tailSet(after, false)) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(brokerName);
+        }
+        return page;
+    }
+
+    private static void add(final ConcurrentMap<String, NavigableSet<String>> index, final String key,
+            final String brokerName) {
+        // inside compute, so that a concurrent removal cannot drop the set this name goes into
+        index.compute(key, (k, brokerNames) -> {
+            final NavigableSet<String> updated = brokerNames == null ? new ConcurrentSkipListSet<>() : brokerNames;
+            updated.add(brokerName);
+            return updated;
+        });
+    }
+
+    private static void remove(final ConcurrentMap<String, NavigableSet<String>> index, final String key,
+            final String brokerName) {
+        index.computeIfPresent(key, (k, brokerNames) -> {
+            brokerNames.remove(brokerName);
+            return brokerNames.isEmpty() ? null : brokerNames;
+        });
+    }
+
+    private static String hostKey(final String hostName) {
+        return hostName == null ? "" : hostName.toLowerCase(Locale.ROOT);
+    }
+
+    private static String endpointKey(final String hostName, final int port) {
+        return hostKey(hostName) + ':' + port;
+    }
+}
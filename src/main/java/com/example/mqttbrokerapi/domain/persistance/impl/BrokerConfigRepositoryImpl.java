@@ -1,25 +1,43 @@
 package com.example.mqttbrokerapi.domain.persistance.impl;
 
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigurationChangedEvent;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
 import org.apache.logging.log4j.util.Strings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Repository
-public class BrokerConfigRepositoryImpl implements BrokerConfigRepository {
+@ConditionalOnProperty(name = "broker.config.store.type", havingValue = "memory", matchIfMissing = true)
+public class BrokerConfigRepositoryImpl implements BrokerConfigRepository, ApplicationEventPublisherAware {
     private final ConcurrentMap<String, BrokerConfiguration> configStore = new ConcurrentHashMap<>();
 
+    private final BrokerConfigIndex index = new BrokerConfigIndex();
+
+    private ApplicationEventPublisher eventPublisher;
+
+    @Override
+    public void setApplicationEventPublisher(final ApplicationEventPublisher applicationEventPublisher) {
+        this.eventPublisher = applicationEventPublisher;
+    }
+
     @Override
     public Mono<Void> persistBrokerConfiguration(final String brokerName, final BrokerConfiguration brokerConfiguration) {
         if (Strings.isEmpty(brokerName)){
             return Mono.empty();
         }
 
-        configStore.put(brokerName, brokerConfiguration);
+        put(brokerName, brokerConfiguration);
         return Mono.empty();
     }
 
@@ -30,7 +48,68 @@ public class BrokerConfigRepositoryImpl implements BrokerConfigRepository {
 
     @Override
     public Mono<Void> deleteBrokerConfiguration(final String brokerName) {
-        configStore.remove(brokerName);
+        remove(brokerName);
         return Mono.empty();
     }
+
+    @Override
+    public Mono<Long> persistBrokerConfigurations(final Flux<NamedBrokerConfiguration> brokerConfigurations) {
+        return brokerConfigurations
+                .filter(named -> !Strings.isEmpty(named.getBrokerName()))
+                .doOnNext(named -> put(named.getBrokerName(), named.getBrokerConfiguration()))
+                .count();
+    }
+
+    @Override
+    public Mono<Long> deleteBrokerConfigurations(final Flux<String> brokerNames) {
+        return brokerNames
+                .filter(this::remove)
+                .count();
+    }
+
+    @Override
+    public Flux<NamedBrokerConfiguration> listBrokerConfigurations(final String hostName, final Integer port,
+                                                                   final String after, final int limit) {
+        return Flux.defer(() -> Flux.fromIterable(index.page(hostName, port, after, limit)))
+                .handle((brokerName, sink) -> {
+                    // deleted since the page was read
+                    final BrokerConfiguration brokerConfiguration = configStore.get(brokerName);
+                    if (brokerConfiguration != null) {
+                        sink.next(new NamedBrokerConfiguration(brokerName, brokerConfiguration));
+                    }
+                });
+    }
+
+    private void put(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+        final AtomicReference<BrokerConfiguration> previous = new AtomicReference<>();
+        // the index is updated under the lock of the entry, so it sees the updates of a broker in order
+        configStore.compute(brokerName, (name, current) -> {
+            previous.set(current);
+            index.update(name, current, brokerConfiguration);
+            return brokerConfiguration;
+        });
+        if (previous.get() != null && !Objects.equals(previous.get(), brokerConfiguration)) {
+            publishChange(brokerName);
+        }
+    }
+
+    private boolean remove(final String brokerName) {
+        final AtomicReference<BrokerConfiguration> previous = new AtomicReference<>();
+        configStore.computeIfPresent(brokerName, (name, current) -> {
+            previous.set(current);
+            index.update(name, current, null);
+            return null;
+        });
+        if (previous.get() == null) {
+            return false;
+        }
+        publishChange(brokerName);
+        return true;
+    }
+
+    private void publishChange(final String brokerName) {
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(new BrokerConfigurationChangedEvent(brokerName));
+        }
+    }
 }
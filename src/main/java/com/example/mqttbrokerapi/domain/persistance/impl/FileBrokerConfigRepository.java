@@ -0,0 +1,442 @@
+package com.example.mqttbrokerapi.domain.persistance.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigurationChangedEvent;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.stereotype.Repository;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Broker configurations kept in memory and persisted to an append-only log, which is periodically
+ * compacted into a snapshot. On startup the snapshot is memory-mapped and the log, which the
+ * compaction keeps short, is replayed on top of it. All file access happens on a single writer
+ * thread, never on the calling event loop. Bulk upserts and deletes are written in chunks of
+ * {@value #BULK_CHUNK} records with one sync per chunk.
+ */
+@Repository
+@ConditionalOnProperty(name = "broker.config.store.type", havingValue = "file")
+public class FileBrokerConfigRepository implements BrokerConfigRepository, ApplicationEventPublisherAware {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileBrokerConfigRepository.class);
+
+    static final String LOG_FILE = "broker-config.log";
+
+    static final String SNAPSHOT_FILE = "broker-config.snapshot";
+
+    private static final int SNAPSHOT_MAGIC = 0x42434654;
+
+    // snapshots written before entries carried the number of connections
+    private static final int SNAPSHOT_MAGIC_V1 = 0x42434653;
+
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    static final int BULK_CHUNK = 256;
+
+    private final ConcurrentMap<String, BrokerConfiguration> configStore = new ConcurrentHashMap<>();
+
+    private final BrokerConfigIndex index = new BrokerConfigIndex();
+
+    private final Path logFile;
+
+    private final Path snapshotFile;
+
+    private final Duration snapshotInterval;
+
+    private final int compactAfter;
+
+    private final Scheduler writer = Schedulers.newSingle("broker-config-store");
+
+    private final FileChannel log;
+
+    private int appendedSinceSnapshot;
+
+    private Disposable snapshotTask;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    public FileBrokerConfigRepository(@Value("${broker.config.store.directory:data/broker-config}") String directory,
+            @Value("${broker.config.store.snapshot-interval:PT1M}") Duration snapshotInterval,
+            @Value("${broker.config.store.compact-after:10000}") int compactAfter) throws IOException {
+        final Path storeDirectory = Files.createDirectories(Path.of(directory));
+        this.logFile = storeDirectory.resolve(LOG_FILE);
+        this.snapshotFile = storeDirectory.resolve(SNAPSHOT_FILE);
+        this.snapshotInterval = snapshotInterval;
+        this.compactAfter = compactAfter;
+        final long start = System.nanoTime();
+        loadSnapshot();
+        this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        replayLog();
+        configStore.forEach((brokerName, brokerConfiguration) -> index.update(brokerName, null, brokerConfiguration));
+        LOGGER.info("Recovered {} broker configurations from {} in {} ms", configStore.size(), storeDirectory,
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    @Override
+    public void setApplicationEventPublisher(final ApplicationEventPublisher applicationEventPublisher) {
+        this.eventPublisher = applicationEventPublisher;
+    }
+
+    @PostConstruct
+    public void startSnapshots() {
+        snapshotTask = Flux.interval(snapshotInterval, snapshotInterval, writer)
+                .subscribe(tick -> {
+                    if (appendedSinceSnapshot > 0) {
+                        snapshotQuietly();
+                    }
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (snapshotTask != null) {
+            snapshotTask.dispose();
+        }
+        Mono.fromRunnable(() -> {
+                    if (appendedSinceSnapshot > 0) {
+                        snapshotQuietly();
+                    }
+                    try {
+                        log.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Closing {} failed", logFile, e);
+                    }
+                })
+                .subscribeOn(writer)
+                .block();
+        writer.dispose();
+    }
+
+    @Override
+    public Mono<Void> persistBrokerConfiguration(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+        if (Strings.isEmpty(brokerName)) {
+            return Mono.empty();
+        }
+
+        return Mono.<Void>fromRunnable(() -> {
+            if (put(brokerName, brokerConfiguration)) {
+                sync();
+            }
+        }).subscribeOn(writer);
+    }
+
+    @Override
+    public Mono<BrokerConfiguration> lookupBrokerConfiguration(final String brokerName) {
+        return Mono.justOrEmpty(configStore.get(brokerName));
+    }
+
+    @Override
+    public Mono<Void> deleteBrokerConfiguration(final String brokerName) {
+        return Mono.<Void>fromRunnable(() -> {
+            if (remove(brokerName)) {
+                sync();
+            }
+        }).subscribeOn(writer);
+    }
+
+    @Override
+    public Mono<Long> persistBrokerConfigurations(final Flux<NamedBrokerConfiguration> brokerConfigurations) {
+        return brokerConfigurations
+                .filter(named -> !Strings.isEmpty(named.getBrokerName()))
+                .buffer(BULK_CHUNK)
+                .concatMap(chunk -> Mono.fromCallable(() -> {
+                    boolean written = false;
+                    for (NamedBrokerConfiguration named : chunk) {
+                        written |= put(named.getBrokerName(), named.getBrokerConfiguration());
+                    }
+                    if (written) {
+                        sync();
+                    }
+                    return (long) chunk.size();
+                }).subscribeOn(writer))
+                .reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Mono<Long> deleteBrokerConfigurations(final Flux<String> brokerNames) {
+        return brokerNames
+                .buffer(BULK_CHUNK)
+                .concatMap(chunk -> Mono.fromCallable(() -> {
+                    long deleted = 0;
+                    for (String brokerName : chunk) {
+                        if (remove(brokerName)) {
+                            deleted++;
+                        }
+                    }
+                    if (deleted > 0) {
+                        sync();
+                    }
+                    return deleted;
+                }).subscribeOn(writer))
+                .reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Flux<NamedBrokerConfiguration> listBrokerConfigurations(final String hostName, final Integer port,
+                                                                   final String after, final int limit) {
+        return Flux.defer(() -> Flux.fromIterable(index.page(hostName, port, after, limit)))
+                .handle((brokerName, sink) -> {
+                    // deleted since the page was read
+                    final BrokerConfiguration brokerConfiguration = configStore.get(brokerName);
+                    if (brokerConfiguration != null) {
+                        sink.next(new NamedBrokerConfiguration(brokerName, brokerConfiguration));
+                    }
+                });
+    }
+
+    public int size() {
+        return configStore.size();
+    }
+
+    private void publishChange(final String brokerName) {
+        if (eventPublisher != null) {
+            eventPublisher.publishEvent(new BrokerConfigurationChangedEvent(brokerName));
+        }
+    }
+
+    /**
+     * Appends the change unless it changes nothing; the caller syncs the log afterwards.
+     */
+    private boolean put(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+        final BrokerConfiguration previous = configStore.get(brokerName);
+        if (Objects.equals(previous, brokerConfiguration)) {
+            return false;
+        }
+        append(encode(PUT, brokerName, brokerConfiguration));
+        configStore.put(brokerName, brokerConfiguration);
+        index.update(brokerName, previous, brokerConfiguration);
+        if (previous != null) {
+            publishChange(brokerName);
+        }
+        return true;
+    }
+
+    private boolean remove(final String brokerName) {
+        final BrokerConfiguration previous = configStore.get(brokerName);
+        if (previous == null) {
+            return false;
+        }
+        append(encode(DELETE, brokerName, null));
+        configStore.remove(brokerName);
+        index.update(brokerName, previous, null);
+        publishChange(brokerName);
+        return true;
+    }
+
+    private void append(final ByteBuffer record) {
+        try {
+            while (record.hasRemaining()) {
+                log.write(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        appendedSinceSnapshot++;
+    }
+
+    private void sync() {
+        try {
+            log.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (appendedSinceSnapshot >= compactAfter) {
+            snapshotQuietly();
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            LOGGER.warn("Writing broker configuration snapshot {} failed", snapshotFile, e);
+        }
+    }
+
+    private void snapshot() throws IOException {
+        int size = 3 * Integer.BYTES;
+        for (Map.Entry<String, BrokerConfiguration> entry : configStore.entrySet()) {
+            size += entrySize(entry.getKey(), entry.getValue());
+        }
+        final ByteBuffer snapshot = ByteBuffer.allocate(size);
+        snapshot.putInt(SNAPSHOT_MAGIC).putInt(configStore.size());
+        configStore.forEach((brokerName, brokerConfiguration) -> putEntry(snapshot, brokerName, brokerConfiguration));
+        snapshot.putInt(checksum(snapshot.array(), 0, snapshot.position()));
+        snapshot.flip();
+
+        final Path temporary = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.truncate(0);
+        log.force(true);
+        appendedSinceSnapshot = 0;
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final int checksumOffset = snapshot.limit() - Integer.BYTES;
+            final int magic = checksumOffset < 2 * Integer.BYTES ? 0 : snapshot.getInt(0);
+            if ((magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1)
+                    || snapshot.getInt(checksumOffset) != checksum(snapshot, 0, checksumOffset)) {
+                throw new IOException("Broker configuration snapshot " + snapshotFile + " is corrupt");
+            }
+            snapshot.position(Integer.BYTES);
+            final int count = snapshot.getInt();
+            for (int i = 0; i < count; i++) {
+                final String brokerName = getString(snapshot);
+                configStore.put(brokerName, getConfiguration(snapshot, magic == SNAPSHOT_MAGIC));
+            }
+        }
+    }
+
+    private void replayLog() throws IOException {
+        final ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(logFile));
+        final int size = records.limit();
+        int valid = 0;
+        while (records.remaining() >= RECORD_HEADER_BYTES) {
+            final int length = records.getInt();
+            final int checksum = records.getInt();
+            if (length <= 0 || length > records.remaining()
+                    || checksum != checksum(records, records.position(), length)) {
+                break;
+            }
+            final int end = records.position() + length;
+            final byte operation = records.get();
+            final String brokerName = getString(records);
+            if (operation == PUT) {
+                final BrokerConfiguration brokerConfiguration = BrokerConfiguration.builder()
+                        .hostName(getString(records))
+                        .port(records.getInt())
+                        .build();
+                // records written before configurations carried the number of connections end here
+                if (records.position() < end) {
+                    brokerConfiguration.setConnections(records.getInt());
+                }
+                configStore.put(brokerName, brokerConfiguration);
+            } else {
+                configStore.remove(brokerName);
+            }
+            valid = records.position();
+            appendedSinceSnapshot++;
+        }
+        if (valid < size) {
+            LOGGER.warn("Discarding {} bytes of incomplete records at the end of {}", size - valid, logFile);
+            log.truncate(valid);
+        }
+        log.position(valid);
+    }
+
+    private static ByteBuffer encode(final byte operation, final String brokerName,
+            final BrokerConfiguration brokerConfiguration) {
+        final int length = 1 + (operation == PUT ? entrySize(brokerName, brokerConfiguration)
+                : stringSize(brokerName));
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        record.putInt(length).putInt(0).put(operation);
+        if (operation == PUT) {
+            putEntry(record, brokerName, brokerConfiguration);
+        } else {
+            putString(record, brokerName);
+        }
+        record.putInt(Integer.BYTES, checksum(record.array(), RECORD_HEADER_BYTES, length));
+        return record.flip();
+    }
+
+    private static int entrySize(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+        return stringSize(brokerName) + stringSize(brokerConfiguration.getHostName()) + 2 * Integer.BYTES;
+    }
+
+    private static void putEntry(final ByteBuffer buffer, final String brokerName,
+            final BrokerConfiguration brokerConfiguration) {
+        putString(buffer, brokerName);
+        putString(buffer, brokerConfiguration.getHostName());
+        buffer.putInt(brokerConfiguration.getPort());
+        buffer.putInt(brokerConfiguration.getConnections());
+    }
+
+    private static BrokerConfiguration getConfiguration(final ByteBuffer buffer, final boolean withConnections) {
+        return BrokerConfiguration.builder()
+                .hostName(getString(buffer))
+                .port(buffer.getInt())
+                .connections(withConnections ? buffer.getInt() : 0)
+                .build();
+    }
+
+    private static int stringSize(final String value) {
+        return Integer.BYTES + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(final byte[] bytes, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(final ByteBuffer buffer, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.mqttbrokerapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BrokerConfigBulkResultDTO {
+    private long applied;
+    private long rejected;
+}
@@ -0,0 +1,20 @@
+package com.example.mqttbrokerapi.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BrokerConfigEntryDTO {
+    @JsonProperty("broker_name")
+    private String brokerName;
+    @JsonProperty("host_name")
+    private String hostName;
+    private int port;
+    private int connections;
+}
@@ -0,0 +1,18 @@
+package com.example.mqttbrokerapi.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BrokerConfigPageDTO {
+    private List<BrokerConfigEntryDTO> brokers;
+    /** Broker name to pass as {@code after} for the next page; null on the last page. */
+    private String next;
+}
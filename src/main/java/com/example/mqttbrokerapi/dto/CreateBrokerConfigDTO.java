@@ -13,4 +13,5 @@ public class CreateBrokerConfigDTO {
     @JsonProperty("host_name")
     private String hostName;
     private int port;
+    private int connections;
 }
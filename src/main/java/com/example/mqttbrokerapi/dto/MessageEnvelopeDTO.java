@@ -0,0 +1,27 @@
+package com.example.mqttbrokerapi.dto;
+
+import java.time.Instant;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MessageEnvelopeDTO {
+    private long offset;
+    private String topic;
+    private int qos;
+    private Instant receivedAt;
+    private Map<String, String> userProperties;
+    private String payload;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String payloadEncoding;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long latencyMicros;
+}
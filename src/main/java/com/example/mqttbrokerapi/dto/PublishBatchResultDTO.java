@@ -0,0 +1,16 @@
+package com.example.mqttbrokerapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class PublishBatchResultDTO {
+    private long published;
+    private long failed;
+    private long rejected;
+}
@@ -0,0 +1,21 @@
+package com.example.mqttbrokerapi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Query parameters shared by the subscribe endpoints: the per-subscriber {@code buffer} size and its
+ * {@code overflow} strategy, the {@code fromOffset} to replay from and the consumer {@code group}.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SubscribeOptionsDTO {
+    private Integer buffer;
+    private String overflow;
+    private Long fromOffset;
+    private String group;
+}
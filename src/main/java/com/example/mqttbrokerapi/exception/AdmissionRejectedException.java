@@ -0,0 +1,14 @@
+package com.example.mqttbrokerapi.exception;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * A rate limit or stream cap of the broker was reached; answered with {@code 429} and a {@code Retry-After} header.
+ */
+public class AdmissionRejectedException extends RetryLaterException {
+	public AdmissionRejectedException(String brokerName, String limit, Duration retryAfter) {
+		super(HttpStatus.TOO_MANY_REQUESTS, "The " + limit + " limit of broker " + brokerName + " is reached", retryAfter);
+	}
+}
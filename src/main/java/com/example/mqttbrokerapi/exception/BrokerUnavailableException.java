@@ -0,0 +1,14 @@
+package com.example.mqttbrokerapi.exception;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * The circuit breaker of the broker is open; answered with {@code 503} and a {@code Retry-After} header.
+ */
+public class BrokerUnavailableException extends RetryLaterException {
+	public BrokerUnavailableException(String brokerName, Duration retryAfter) {
+		super(HttpStatus.SERVICE_UNAVAILABLE, "Broker " + brokerName + " is unavailable", retryAfter);
+	}
+}
@@ -0,0 +1,11 @@
+package com.example.mqttbrokerapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class LatestValueNotFoundException extends RuntimeException{
+	public LatestValueNotFoundException(String brokerName, String topic) {
+		super("No message of topic " + topic + " on broker " + brokerName + " received yet");
+	}
+}
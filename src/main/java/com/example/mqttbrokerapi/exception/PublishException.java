@@ -0,0 +1,11 @@
+package com.example.mqttbrokerapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_GATEWAY)
+public class PublishException extends RuntimeException{
+	public PublishException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,11 @@
+package com.example.mqttbrokerapi.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class PublishQueueFullException extends RuntimeException{
+	public PublishQueueFullException(String brokerName) {
+		super("Publish queue of broker " + brokerName + " is full");
+	}
+}
@@ -0,0 +1,31 @@
+package com.example.mqttbrokerapi.exception;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * A request the client may repeat after {@link #getRetryAfter()}, sent to it as {@code Retry-After} header.
+ */
+public abstract class RetryLaterException extends ResponseStatusException {
+	private final Duration retryAfter;
+
+	protected RetryLaterException(HttpStatus status, String reason, Duration retryAfter) {
+		super(status, reason);
+		this.retryAfter = retryAfter;
+	}
+
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		final HttpHeaders headers = new HttpHeaders();
+		// whole seconds, rounded up
+		headers.set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000)));
+		return headers;
+	}
+}
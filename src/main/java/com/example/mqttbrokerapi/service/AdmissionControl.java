@@ -0,0 +1,219 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.mqttbrokerapi.exception.AdmissionRejectedException;
+import io.micrometer.core.instrument.Counter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Publish rate limits and caps on concurrent subscription streams, checked before a request does any
+ * MQTT work. Every entry of {@code broker.admission.limits} is
+ * {@code {broker}:{topic prefix}:{publishes per second}:{burst}:{max streams}}, where {@code *} matches
+ * every broker, an empty prefix every topic and {@code 0} means unlimited. Each broker gets its own
+ * token bucket and stream count per entry, and a request has to pass all entries matching its broker
+ * and topic.
+ * <p>
+ * The token buckets are lock-free: a bucket is a single theoretical arrival time that moves forward by
+ * one emission interval per publish and may run at most {@code burst} intervals ahead of now.
+ */
+@Service
+public class AdmissionControl {
+	public static final String PUBLISH_RATE = "publish-rate";
+
+	public static final String STREAMS = "streams";
+
+	private static final Duration STREAM_RETRY_AFTER = Duration.ofSeconds(1);
+
+	private final MqttMetrics mqttMetrics;
+
+	private final List<Limit> limits;
+
+	public AdmissionControl(MqttMetrics mqttMetrics, @Value("${broker.admission.limits:}") List<String> limits) {
+		this.mqttMetrics = mqttMetrics;
+		this.limits = limits.stream()
+				.filter(limit -> !limit.isBlank())
+				.map(limit -> Limit.parse(limit.trim()))
+				.toList();
+	}
+
+	/**
+	 * Takes one token of every matching bucket, or fails with {@link AdmissionRejectedException} and
+	 * takes none.
+	 */
+	public Mono<Void> admitPublish(final String brokerName, final String topicName) {
+		if (limits.isEmpty()) {
+			return Mono.empty();
+		}
+		return Mono.defer(() -> {
+			final long retryAfter = acquirePublish(brokerName, topicName);
+			return retryAfter == 0 ? Mono.empty() : Mono.error(
+					new AdmissionRejectedException(brokerName, PUBLISH_RATE, Duration.ofNanos(retryAfter)));
+		});
+	}
+
+	/**
+	 * Like {@link #admitPublish} for the messages of a batch, which are skipped rather than failed.
+	 */
+	public boolean tryAdmitPublish(final String brokerName, final String topicName) {
+		return limits.isEmpty() || acquirePublish(brokerName, topicName) == 0;
+	}
+
+	/**
+	 * Opens the stream if every matching stream cap has room for it and frees its slots once it
+	 * terminates or is cancelled; otherwise fails with {@link AdmissionRejectedException}.
+	 */
+	public <T> Flux<T> admitStream(final String brokerName, final List<String> topicFilters, final Flux<T> stream) {
+		if (limits.isEmpty()) {
+			return stream;
+		}
+		return Flux.defer(() -> {
+			final List<Admission> opened = new ArrayList<>();
+			for (Limit limit : limits) {
+				if (limit.maxStreams > 0
+						&& topicFilters.stream().anyMatch(topicFilter -> limit.matches(brokerName, topicFilter))) {
+					final Admission admission = admission(limit, brokerName);
+					if (!admission.tryOpenStream()) {
+						opened.forEach(Admission::closeStream);
+						admission.rejectedStreams.increment();
+						return Flux.error(new AdmissionRejectedException(brokerName, STREAMS, STREAM_RETRY_AFTER));
+					}
+					opened.add(admission);
+				}
+			}
+			return opened.isEmpty() ? stream : stream.doFinally(signalType -> opened.forEach(Admission::closeStream));
+		});
+	}
+
+	/**
+	 * 0 if all buckets had a token, otherwise the nanoseconds until the one that had none has one again.
+	 */
+	private long acquirePublish(final String brokerName, final String topicName) {
+		final long now = System.nanoTime();
+		final List<Admission> acquired = new ArrayList<>();
+		for (Limit limit : limits) {
+			if (limit.interval > 0 && limit.matches(brokerName, topicName)) {
+				final Admission admission = admission(limit, brokerName);
+				final long retryAfter = admission.tryAcquire(now);
+				if (retryAfter > 0) {
+					acquired.forEach(Admission::refund);
+					admission.rejectedPublishes.increment();
+					return retryAfter;
+				}
+				acquired.add(admission);
+			}
+		}
+		return 0;
+	}
+
+	private Admission admission(final Limit limit, final String brokerName) {
+		return limit.admissions.computeIfAbsent(brokerName, name -> new Admission(limit,
+				mqttMetrics.admissionRejections(name, PUBLISH_RATE),
+				mqttMetrics.admissionRejections(name, STREAMS)));
+	}
+
+	private static final class Limit {
+		private final String brokerName;
+
+		private final String topicPrefix;
+
+		private final long interval;
+
+		private final long tolerance;
+
+		private final int maxStreams;
+
+		private final ConcurrentMap<String, Admission> admissions = new ConcurrentHashMap<>();
+
+		private Limit(final String brokerName, final String topicPrefix, final long ratePerSecond, final long burst,
+				final int maxStreams) {
+			this.brokerName = brokerName;
+			this.topicPrefix = topicPrefix;
+			this.interval = ratePerSecond > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+			this.tolerance = interval * Math.max(1, burst > 0 ? burst : ratePerSecond);
+			this.maxStreams = maxStreams;
+		}
+
+		private static Limit parse(final String limit) {
+			final String[] fields = limit.split(":", -1);
+			if (fields.length < 5) {
+				throw new IllegalArgumentException("broker.admission.limits entries must be "
+						+ "{broker}:{topic prefix}:{publishes per second}:{burst}:{max streams}, not " + limit);
+			}
+			final int last = fields.length - 1;
+			// the topic prefix may contain colons itself
+			final String topicPrefix = String.join(":", Arrays.copyOfRange(fields, 1, last - 2));
+			return new Limit(fields[0], topicPrefix, Long.parseLong(fields[last - 2]), Long.parseLong(fields[last - 1]),
+					Integer.parseInt(fields[last]));
+		}
+
+		private boolean matches(final String brokerName, final String topic) {
+			return ("*".equals(this.brokerName) || this.brokerName.equals(brokerName)) && topic.startsWith(topicPrefix);
+		}
+	}
+
+	private static final class Admission {
+		private final Limit limit;
+
+		private final AtomicLong theoreticalArrival;
+
+		private final AtomicInteger openStreams = new AtomicInteger();
+
+		private final Counter rejectedPublishes;
+
+		private final Counter rejectedStreams;
+
+		private Admission(final Limit limit, final Counter rejectedPublishes, final Counter rejectedStreams) {
+			this.limit = limit;
+			// starts with a full bucket
+			this.theoreticalArrival = new AtomicLong(System.nanoTime() - limit.tolerance);
+			this.rejectedPublishes = rejectedPublishes;
+			this.rejectedStreams = rejectedStreams;
+		}
+
+		private long tryAcquire(final long now) {
+			while (true) {
+				final long arrival = theoreticalArrival.get();
+				final long next = now + Math.max(arrival - now, 0) + limit.interval;
+				final long retryAfter = next - now - limit.tolerance;
+				if (retryAfter > 0) {
+					return retryAfter;
+				}
+				if (theoreticalArrival.compareAndSet(arrival, next)) {
+					return 0;
+				}
+			}
+		}
+
+		private void refund() {
+			theoreticalArrival.addAndGet(-limit.interval);
+		}
+
+		private boolean tryOpenStream() {
+			while (true) {
+				final int open = openStreams.get();
+				if (open >= limit.maxStreams) {
+					return false;
+				}
+				if (openStreams.compareAndSet(open, open + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private void closeStream() {
+			openStreams.decrementAndGet();
+		}
+	}
+}
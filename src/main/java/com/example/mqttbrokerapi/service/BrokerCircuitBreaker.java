@@ -0,0 +1,190 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import com.example.mqttbrokerapi.exception.BrokerUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * One circuit breaker per broker name, shared by all requests. It opens after
+ * {@code failureThreshold} connection failures in a row and then fails requests right away with
+ * {@link BrokerUnavailableException} instead of letting them wait for the broker. Once the open
+ * period is over it is half-open and lets one request at a time through; the next successful
+ * connection closes it, the next failure opens it again for longer. The open periods grow
+ * exponentially from {@code initialBackoff} up to {@code maxBackoff}, each randomized by
+ * {@code jitter} so that the replicas of the service do not all probe the broker at once.
+ */
+@Service
+public class BrokerCircuitBreaker {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BrokerCircuitBreaker.class);
+
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+	private final MqttMetrics mqttMetrics;
+
+	private final int failureThreshold;
+
+	private final Duration initialBackoff;
+
+	private final Duration maxBackoff;
+
+	private final double multiplier;
+
+	private final double jitter;
+
+	private final Duration connectTimeout;
+
+	/**
+	 * @param jitter         fraction by which an open period is randomly shortened or lengthened
+	 * @param connectTimeout how long a request waits for a connection before it counts as a failure
+	 */
+	public BrokerCircuitBreaker(MqttMetrics mqttMetrics,
+			@Value("${broker.circuit.failure-threshold:3}") int failureThreshold,
+			@Value("${broker.circuit.backoff.initial:PT1S}") Duration initialBackoff,
+			@Value("${broker.circuit.backoff.max:PT1M}") Duration maxBackoff,
+			@Value("${broker.circuit.backoff.multiplier:2}") double multiplier,
+			@Value("${broker.circuit.backoff.jitter:0.2}") double jitter,
+			@Value("${broker.circuit.connect-timeout:PT10S}") Duration connectTimeout) {
+		this.mqttMetrics = mqttMetrics;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.multiplier = Math.max(1, multiplier);
+		this.jitter = Math.min(1, Math.max(0, jitter));
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Lets the wait for a connection through if the breaker of the broker allows it, and fails it with
+	 * {@link BrokerUnavailableException} otherwise or once it took longer than the connect timeout.
+	 */
+	public <T> Mono<T> protect(final String brokerName, final Mono<T> connection) {
+		return Mono.defer(() -> {
+			final Breaker breaker = breaker(brokerName);
+			final long retryAfter = breaker.permit(System.nanoTime());
+			if (retryAfter > 0) {
+				breaker.rejected.increment();
+				return Mono.error(new BrokerUnavailableException(brokerName, Duration.ofNanos(retryAfter)));
+			}
+			return connection
+					.timeout(connectTimeout)
+					.onErrorMap(TimeoutException.class, timeout -> {
+						recordFailure(brokerName);
+						return new BrokerUnavailableException(brokerName, breaker.retryAfter(System.nanoTime()));
+					})
+					.doFinally(signalType -> breaker.probed());
+		});
+	}
+
+	public void recordSuccess(final String brokerName) {
+		breaker(brokerName).success();
+	}
+
+	public void recordFailure(final String brokerName) {
+		breaker(brokerName).failure(System.nanoTime());
+	}
+
+	public State state(final String brokerName) {
+		final Breaker breaker = breakers.get(brokerName);
+		return breaker == null ? State.CLOSED : breaker.state();
+	}
+
+	private Breaker breaker(final String brokerName) {
+		return breakers.computeIfAbsent(brokerName, name -> {
+			final Breaker breaker = new Breaker(name, mqttMetrics.circuitRejections(name));
+			mqttMetrics.gauge("mqtt.circuit.state", name, () -> breaker.state().ordinal());
+			return breaker;
+		});
+	}
+
+	private long backoff(final int opened) {
+		final double exponential = initialBackoff.toNanos() * Math.pow(multiplier, opened - 1);
+		final double capped = Math.min(maxBackoff.toNanos(), exponential);
+		return (long) (capped * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+	}
+
+	private final class Breaker {
+		private final String brokerName;
+
+		private final Counter rejected;
+
+		private State state = State.CLOSED;
+
+		private int failures;
+
+		private int opened;
+
+		private long openUntil;
+
+		private boolean probing;
+
+		private Breaker(final String brokerName, final Counter rejected) {
+			this.brokerName = brokerName;
+			this.rejected = rejected;
+		}
+
+		/**
+		 * 0 if a request may go ahead, otherwise the nanoseconds until it is worth trying again.
+		 */
+		private synchronized long permit(final long now) {
+			if (state == State.OPEN && now - openUntil >= 0) {
+				state = State.HALF_OPEN;
+				probing = false;
+			}
+			if (state == State.CLOSED) {
+				return 0;
+			}
+			if (state == State.HALF_OPEN && !probing) {
+				probing = true;
+				return 0;
+			}
+			return retryAfter(now).toNanos();
+		}
+
+		private synchronized Duration retryAfter(final long now) {
+			return Duration.ofNanos(Math.max(1, state == State.OPEN ? openUntil - now : initialBackoff.toNanos()));
+		}
+
+		private synchronized void probed() {
+			probing = false;
+		}
+
+		private synchronized void success() {
+			if (state != State.CLOSED) {
+				LOGGER.info("Circuit of broker {} closed", brokerName);
+			}
+			state = State.CLOSED;
+			failures = 0;
+			opened = 0;
+		}
+
+		private synchronized void failure(final long now) {
+			failures++;
+			if (state == State.HALF_OPEN || state == State.CLOSED && failures >= failureThreshold) {
+				opened++;
+				openUntil = now + backoff(opened);
+				state = State.OPEN;
+				probing = false;
+				LOGGER.warn("Circuit of broker {} open for {} ms after {} failures", brokerName,
+						Duration.ofNanos(openUntil - now).toMillis(), failures);
+			}
+		}
+
+		private synchronized State state() {
+			return state;
+		}
+	}
+}
@@ -4,23 +4,44 @@ import com.hivemq.client.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAck;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 @Service
 public class ClientConnectWorkFlow {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ClientConnectWorkFlow.class);
+	private final MqttMetrics mqttMetrics;
 
-	public Mono<Mqtt5ConnAck> connectSubscriber(Mqtt5ReactorClient mqtt5Client) {
+	private final int maxInFlight;
+
+	/**
+	 * @param maxInFlight send maximum of each connection, the number of unacknowledged QoS 1 and 2
+	 *                    publishes that are pipelined before further publishes are queued client side
+	 */
+	public ClientConnectWorkFlow(MqttMetrics mqttMetrics,
+			@Value("${broker.client.max-in-flight:1024}") int maxInFlight) {
+		this.mqttMetrics = mqttMetrics;
+		this.maxInFlight = maxInFlight;
+	}
+
+	public Mono<Mqtt5ConnAck> connectSubscriber(String brokerName, Mqtt5ReactorClient mqtt5Client) {
 
 		if (mqtt5Client.getState().isConnectedOrReconnect()) {
 			LOGGER.debug("Client is connected");
 			return Mono.empty();
 		}
 
-		return mqtt5Client
-				.connectWith()
-				.applyConnect()
-				.retry(3);
+		return Mono.defer(() -> {
+			final long start = System.nanoTime();
+			return mqtt5Client
+					.connectWith()
+					.restrictions()
+					.sendMaximum(maxInFlight)
+					.applyRestrictions()
+					.applyConnect()
+					.doOnSuccess(connAck -> mqttMetrics.recordConnect(brokerName, start, true))
+					.doOnError(throwable -> mqttMetrics.recordConnect(brokerName, start, false));
+		});
 	}
 }
@@ -0,0 +1,145 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.example.mqttbrokerapi.dto.DeliveryLatencyDTO;
+import com.hivemq.client.mqtt.datatypes.MqttUtf8String;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * End-to-end latency from the HTTP publish to the delivery on a subscriber stream. Publishes are stamped
+ * with their wall-clock time in epoch microseconds and a random trace id as MQTT 5 user properties, and
+ * every stamped message a subscriber stream receives is recorded in a histogram per broker and topic.
+ * Latencies across hosts are only as accurate as their clocks are in sync. Beyond {@code maxTopics}
+ * topics per broker the rest share the {@value #OTHER_TOPICS} histogram.
+ */
+@Service
+public class DeliveryLatency {
+	public static final String PUBLISHED_AT = "x-published-at";
+
+	public static final String TRACE_ID = "x-trace-id";
+
+	public static final String OTHER_TOPICS = "$other";
+
+	private static final MqttUtf8String PUBLISHED_AT_NAME = MqttUtf8String.of(PUBLISHED_AT);
+
+	private static final HexFormat HEX = HexFormat.of();
+
+	private final MqttMetrics mqttMetrics;
+
+	private final boolean stamping;
+
+	private final int maxTopics;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<>();
+
+	public DeliveryLatency(MqttMetrics mqttMetrics,
+			@Value("${broker.latency.stamp:false}") boolean stamping,
+			@Value("${broker.latency.max-topics:100}") int maxTopics) {
+		this.mqttMetrics = mqttMetrics;
+		this.stamping = stamping;
+		this.maxTopics = maxTopics;
+	}
+
+	public boolean isStamping() {
+		return stamping;
+	}
+
+	/**
+	 * The user properties that stamp a publish made now with a new trace id.
+	 */
+	public Mqtt5UserProperties stamp() {
+		return Mqtt5UserProperties.builder()
+				.add(PUBLISHED_AT, Long.toString(nowMicros()))
+				.add(TRACE_ID, HEX.toHexDigits(ThreadLocalRandom.current().nextLong()))
+				.build();
+	}
+
+	/**
+	 * Records the latency of a stamped message; messages without a stamp are ignored.
+	 */
+	public void record(final String brokerName, final Mqtt5Publish mqtt5Publish) {
+		final Long latencyMicros = latencyMicros(mqtt5Publish);
+		if (latencyMicros != null) {
+			timer(brokerName, mqtt5Publish.getTopic().toString()).record(latencyMicros, TimeUnit.MICROSECONDS);
+		}
+	}
+
+	public List<DeliveryLatencyDTO> latencies(final String brokerName) {
+		final Map<String, Timer> topicTimers = timers.get(brokerName);
+		if (topicTimers == null) {
+			return List.of();
+		}
+		return topicTimers.entrySet().stream()
+				.map(entry -> toLatency(entry.getKey(), entry.getValue().takeSnapshot()))
+				.sorted(Comparator.comparing(DeliveryLatencyDTO::getTopic))
+				.toList();
+	}
+
+	/**
+	 * Microseconds from the stamped publish until now, or {@code null} if the message carries no stamp.
+	 */
+	public static Long latencyMicros(final Mqtt5Publish mqtt5Publish) {
+		for (Mqtt5UserProperty userProperty : mqtt5Publish.getUserProperties().asList()) {
+			if (PUBLISHED_AT_NAME.equals(userProperty.getName())) {
+				try {
+					// clock skew between hosts must not produce negative latencies
+					return Math.max(0, nowMicros() - Long.parseLong(userProperty.getValue().toString()));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Timer timer(final String brokerName, final String topic) {
+		final ConcurrentMap<String, Timer> topicTimers = timers.computeIfAbsent(brokerName,
+				name -> new ConcurrentHashMap<>());
+		final Timer timer = topicTimers.get(topic);
+		if (timer != null) {
+			return timer;
+		}
+		final String tracked = topicTimers.size() < maxTopics ? topic : OTHER_TOPICS;
+		return topicTimers.computeIfAbsent(tracked, name -> mqttMetrics.deliveryLatency(brokerName, name));
+	}
+
+	private static DeliveryLatencyDTO toLatency(final String topic, final HistogramSnapshot snapshot) {
+		final DeliveryLatencyDTO.DeliveryLatencyDTOBuilder latency = DeliveryLatencyDTO.builder()
+				.topic(topic)
+				.count(snapshot.count())
+				.meanMicros(snapshot.mean(TimeUnit.MICROSECONDS))
+				.maxMicros(snapshot.max(TimeUnit.MICROSECONDS));
+		for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+			final double micros = percentile.value(TimeUnit.MICROSECONDS);
+			if (percentile.percentile() == 0.5) {
+				latency.p50Micros(micros);
+			} else if (percentile.percentile() == 0.99) {
+				latency.p99Micros(micros);
+			} else if (percentile.percentile() == 0.999) {
+				latency.p999Micros(micros);
+			}
+		}
+		return latency.build();
+	}
+
+	private static long nowMicros() {
+		final Instant now = Instant.now();
+		return TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + now.getNano() / 1000;
+	}
+}
@@ -0,0 +1,47 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Latest message per broker and topic, filled from every active broker subscription including the
+ * retained messages a broker sends on subscribe. Entries are evicted least recently used beyond
+ * {@code maxEntries} and expire {@code ttl} after they were written.
+ */
+@Service
+public class LastValueCache {
+	private final Cache<TopicKey, Mqtt5Publish> latest;
+
+	public LastValueCache(MqttMetrics mqttMetrics,
+			@Value("${broker.latest.max-entries:10000}") long maxEntries,
+			@Value("${broker.latest.ttl:PT1H}") Duration ttl) {
+		this.latest = CacheBuilder.newBuilder()
+				.maximumSize(maxEntries)
+				.expireAfterWrite(ttl)
+				.build();
+		mqttMetrics.gauge("mqtt.latest.entries", latest::size);
+	}
+
+	public void put(final String brokerName, final Mqtt5Publish mqtt5Publish) {
+		final TopicKey key = new TopicKey(brokerName, mqtt5Publish.getTopic().toString());
+		// an empty retained message clears the retained value of the topic
+		if (mqtt5Publish.isRetain() && mqtt5Publish.getPayload().isEmpty()) {
+			latest.invalidate(key);
+		} else {
+			latest.put(key, mqtt5Publish);
+		}
+	}
+
+	public Optional<Mqtt5Publish> get(final String brokerName, final String topic) {
+		return Optional.ofNullable(latest.getIfPresent(new TopicKey(brokerName, topic)));
+	}
+
+	private record TopicKey(String brokerName, String topic) {
+	}
+}
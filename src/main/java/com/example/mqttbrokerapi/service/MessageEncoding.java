@@ -0,0 +1,94 @@
+package com.example.mqttbrokerapi.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.mqttbrokerapi.dto.MessageEnvelopeDTO;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.springframework.http.MediaType;
+
+/**
+ * Encodings of received messages for subscription streams: JSON envelopes for NDJSON, which carry the
+ * delivery latency of stamped messages and a payload that is not valid UTF-8 in base64 with
+ * {@code payloadEncoding} set, and compact binary frames. A frame is
+ * {@code [int length][long offset][long receivedAt][byte qos][short topic length][topic]
+ * [short property count]([short name length][name][short value length][value])*[payload]}, big-endian,
+ * where the length counts the bytes after it, shorts are unsigned and the payload takes the rest of the frame.
+ */
+public final class MessageEncoding {
+	public static final String FRAMES_VALUE = "application/x-mqtt-frames";
+
+	public static final MediaType FRAMES = MediaType.parseMediaType(FRAMES_VALUE);
+
+	public static final String BASE64 = "base64";
+
+	private static final int FIXED_FRAME_BYTES = 2 * Long.BYTES + 1 + 2 * Short.BYTES;
+
+	private MessageEncoding() {
+	}
+
+	public static MessageEnvelopeDTO envelope(final ReceivedMessage receivedMessage) {
+		final Mqtt5Publish mqtt5Publish = receivedMessage.mqtt5Publish();
+		final byte[] payload = mqtt5Publish.getPayloadAsBytes();
+		final String text = decodeUtf8(payload);
+		final Map<String, String> userProperties = new LinkedHashMap<>();
+		mqtt5Publish.getUserProperties().asList().forEach(userProperty ->
+				userProperties.put(userProperty.getName().toString(), userProperty.getValue().toString()));
+		return MessageEnvelopeDTO.builder()
+				.offset(receivedMessage.offset())
+				.topic(mqtt5Publish.getTopic().toString())
+				.qos(mqtt5Publish.getQos().getCode())
+				.receivedAt(Instant.ofEpochMilli(receivedMessage.receivedAt()))
+				.userProperties(userProperties)
+				.payload(text != null ? text : Base64.getEncoder().encodeToString(payload))
+				.payloadEncoding(text != null ? null : BASE64)
+				.latencyMicros(DeliveryLatency.latencyMicros(mqtt5Publish))
+				.build();
+	}
+
+	public static ByteBuffer frame(final ReceivedMessage receivedMessage) {
+		final Mqtt5Publish mqtt5Publish = receivedMessage.mqtt5Publish();
+		final byte[] topic = mqtt5Publish.getTopic().toString().getBytes(StandardCharsets.UTF_8);
+		final List<? extends Mqtt5UserProperty> userProperties = mqtt5Publish.getUserProperties().asList();
+		final byte[][] properties = new byte[2 * userProperties.size()][];
+		int length = FIXED_FRAME_BYTES + topic.length;
+		for (int i = 0; i < userProperties.size(); i++) {
+			properties[2 * i] = userProperties.get(i).getName().toString().getBytes(StandardCharsets.UTF_8);
+			properties[2 * i + 1] = userProperties.get(i).getValue().toString().getBytes(StandardCharsets.UTF_8);
+			length += 2 * Short.BYTES + properties[2 * i].length + properties[2 * i + 1].length;
+		}
+		final ByteBuffer payload = mqtt5Publish.getPayload().orElse(ByteBuffer.allocate(0)).duplicate();
+		length += payload.remaining();
+
+		final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length)
+				.putInt(length)
+				.putLong(receivedMessage.offset())
+				.putLong(receivedMessage.receivedAt())
+				.put((byte) mqtt5Publish.getQos().getCode())
+				.putShort((short) topic.length)
+				.put(topic)
+				.putShort((short) userProperties.size());
+		for (byte[] property : properties) {
+			frame.putShort((short) property.length).put(property);
+		}
+		return frame.put(payload).flip();
+	}
+
+	/**
+	 * The payload as text, or {@code null} if it is not valid UTF-8 and would be garbled by decoding it.
+	 */
+	private static String decodeUtf8(final byte[] payload) {
+		try {
+			return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(payload)).toString();
+		} catch (CharacterCodingException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.mqttbrokerapi.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Sampled per-message tracing for the publish and subscribe paths. Messages that are not sampled
+ * are rejected before any payload is decoded or any log argument is allocated.
+ */
+@Service
+public class MessageTracer {
+	private static final Logger LOGGER = LoggerFactory.getLogger("com.example.mqttbrokerapi.trace");
+
+	private final double sampleRate;
+
+	private final List<MqttTopicFilter> topicFilters;
+
+	private final int maxPayloadBytes;
+
+	public MessageTracer(@Value("${broker.tracing.sample-rate:0}") double sampleRate,
+			@Value("${broker.tracing.topics:}") List<String> topics,
+			@Value("${broker.tracing.max-payload-bytes:64}") int maxPayloadBytes) {
+		this.sampleRate = sampleRate;
+		this.topicFilters = topics.stream()
+				.filter(topic -> !topic.isBlank())
+				.map(topic -> MqttTopicFilter.of(topic.trim()))
+				.toList();
+		this.maxPayloadBytes = maxPayloadBytes;
+	}
+
+	public void tracePublished(final String brokerName, final Mqtt5Publish mqtt5Publish) {
+		if (shouldTrace(mqtt5Publish.getTopic())) {
+			LOGGER.info("Published to broker {} topic {}: {}", brokerName, mqtt5Publish.getTopic(),
+					truncatedPayload(mqtt5Publish));
+		}
+	}
+
+	public void traceReceived(final String brokerName, final Mqtt5Publish mqtt5Publish) {
+		if (shouldTrace(mqtt5Publish.getTopic())) {
+			LOGGER.info("Received from broker {} topic {}: {}", brokerName, mqtt5Publish.getTopic(),
+					truncatedPayload(mqtt5Publish));
+		}
+	}
+
+	public boolean shouldTrace(final MqttTopic topic) {
+		if (sampleRate <= 0 || !LOGGER.isInfoEnabled()) {
+			return false;
+		}
+		if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+			return false;
+		}
+		if (topicFilters.isEmpty()) {
+			return true;
+		}
+		for (MqttTopicFilter topicFilter : topicFilters) {
+			if (topicFilter.matches(topic)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String truncatedPayload(final Mqtt5Publish mqtt5Publish) {
+		return mqtt5Publish.getPayload()
+				.map(payload -> {
+					final int length = payload.remaining();
+					if (length > maxPayloadBytes) {
+						payload.limit(payload.position() + maxPayloadBytes);
+						return decode(payload) + "... (" + length + " bytes)";
+					}
+					return decode(payload);
+				})
+				.orElse("");
+	}
+
+	private static String decode(final ByteBuffer payload) {
+		return StandardCharsets.UTF_8.decode(payload).toString();
+	}
+}
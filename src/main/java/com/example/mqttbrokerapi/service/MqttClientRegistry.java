@@ -0,0 +1,323 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.example.mqttbrokerapi.config.MqttClientConnectedEvent;
+import com.example.mqttbrokerapi.config.MqttClientDisconnectedEvent;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigurationChangedEvent;
+import com.example.mqttbrokerapi.exception.BrokerConfigException;
+import com.example.mqttbrokerapi.util.Message;
+import com.hivemq.client.mqtt.MqttClientConfig;
+import com.hivemq.client.mqtt.lifecycle.MqttDisconnectSource;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Keeps the connected {@link Mqtt5ReactorClient}s of each broker name, shared by all requests.
+ * A broker has {@link BrokerConfiguration#getConnections()} clients that share its publish traffic;
+ * the first of them also carries the subscriptions. Clients are replaced when their configuration
+ * changes and disconnected once idle. Waiting for a connection goes through the
+ * {@link BrokerCircuitBreaker} of the broker, which the connection events of its clients keep up to date.
+ */
+@Service
+public class MqttClientRegistry {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MqttClientRegistry.class);
+
+	private final ConcurrentMap<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+	private final Function<BrokerConfiguration, Mqtt5ReactorClient> mqtt5ClientFactory;
+
+	private final ClientConnectWorkFlow clientConnectWorkFlow;
+
+	private final BrokerCircuitBreaker circuitBreaker;
+
+	private final PublishQueue publishQueue;
+
+	private final MqttMetrics mqttMetrics;
+
+	private final Duration idleTimeout;
+
+	private final Duration idleCheckInterval;
+
+	private Disposable idleSweeper;
+
+	public MqttClientRegistry(Function<BrokerConfiguration, Mqtt5ReactorClient> mqtt5ClientFactory,
+			ClientConnectWorkFlow clientConnectWorkFlow, BrokerCircuitBreaker circuitBreaker,
+			PublishQueue publishQueue, MqttMetrics mqttMetrics,
+			@Value("${broker.client.idle-timeout:PT5M}") Duration idleTimeout,
+			@Value("${broker.client.idle-check-interval:PT30S}") Duration idleCheckInterval) {
+		this.mqtt5ClientFactory = mqtt5ClientFactory;
+		this.clientConnectWorkFlow = clientConnectWorkFlow;
+		this.circuitBreaker = circuitBreaker;
+		this.publishQueue = publishQueue;
+		this.mqttMetrics = mqttMetrics;
+		this.idleTimeout = idleTimeout;
+		this.idleCheckInterval = idleCheckInterval;
+	}
+
+	@PostConstruct
+	public void startIdleSweeper() {
+		mqttMetrics.gauge("mqtt.clients", clients::size);
+		idleSweeper = Flux.interval(idleCheckInterval)
+				.subscribe(tick -> evictIdleClients());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (idleSweeper != null) {
+			idleSweeper.dispose();
+		}
+		clients.keySet().forEach(this::evict);
+	}
+
+	public Mono<Mqtt5ReactorClient> acquire(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+		return Mono.defer(() -> circuitBreaker.protect(brokerName,
+				pooledClient(brokerName, brokerConfiguration).primary().connection()));
+	}
+
+	/**
+	 * Returns the connected client to publish to the topic on, see {@link PublishConnections#select}.
+	 */
+	public Mono<Mqtt5ReactorClient> acquire(final String brokerName, final BrokerConfiguration brokerConfiguration,
+			final String topicName, final boolean ordered) {
+		return Mono.defer(() -> circuitBreaker.protect(brokerName,
+				pooledClient(brokerName, brokerConfiguration).select(topicName, ordered).connection()));
+	}
+
+	/**
+	 * Returns the client of the broker right away, connecting it in the background if necessary.
+	 */
+	public Mono<Mqtt5ReactorClient> acquireWithoutWaiting(final String brokerName,
+			final BrokerConfiguration brokerConfiguration) {
+		return Mono.fromSupplier(() -> connectInBackground(brokerName,
+				pooledClient(brokerName, brokerConfiguration).primary()));
+	}
+
+	public Mono<Mqtt5ReactorClient> acquireWithoutWaiting(final String brokerName,
+			final BrokerConfiguration brokerConfiguration, final String topicName, final boolean ordered) {
+		return Mono.fromSupplier(() -> connectInBackground(brokerName,
+				pooledClient(brokerName, brokerConfiguration).select(topicName, ordered)));
+	}
+
+	public <T> Flux<T> withClient(final String brokerName, final BrokerConfiguration brokerConfiguration,
+			final Function<Mqtt5ReactorClient, ? extends Publisher<T>> work) {
+		return Flux.defer(() -> {
+			final PooledClient pooledClient = pooledClient(brokerName, brokerConfiguration);
+			pooledClient.retain();
+			return circuitBreaker.protect(brokerName, pooledClient.primary().connection())
+					.flatMapMany(work)
+					.doFinally(signalType -> pooledClient.release());
+		});
+	}
+
+	/**
+	 * Like {@link #withClient}, but passes all connections of the broker once they are connected.
+	 */
+	public <T> Flux<T> withConnections(final String brokerName, final BrokerConfiguration brokerConfiguration,
+			final Function<PublishConnections, ? extends Publisher<T>> work) {
+		return Flux.defer(() -> {
+			final PooledClient pooledClient = pooledClient(brokerName, brokerConfiguration);
+			pooledClient.retain();
+			return circuitBreaker.protect(brokerName, Flux.fromIterable(pooledClient.connections)
+							.flatMap(Connection::connection)
+							.then(Mono.just(pooledClient)))
+					.flatMapMany(connected -> work.apply((topicName, ordered) ->
+							connected.select(topicName, ordered).client()))
+					.doFinally(signalType -> pooledClient.release());
+		});
+	}
+
+	public void evict(final String brokerName) {
+		final PooledClient removed = clients.remove(brokerName);
+		if (removed != null) {
+			LOGGER.info("Closing MQTT client of broker {}", brokerName);
+			removed.close();
+		}
+	}
+
+	public void evictIdleClients() {
+		final long now = System.nanoTime();
+		clients.forEach((brokerName, pooledClient) -> {
+			if (pooledClient.isIdle(now, idleTimeout) && clients.remove(brokerName, pooledClient)) {
+				LOGGER.info("Closing idle MQTT client of broker {}", brokerName);
+				pooledClient.close();
+			}
+		});
+	}
+
+	@EventListener
+	public void onBrokerConfigurationChanged(final BrokerConfigurationChangedEvent event) {
+		evict(event.getBrokerName());
+	}
+
+	@EventListener
+	public void onClientConnected(final MqttClientConnectedEvent event) {
+		brokerNameOf(event.getClientConfig()).ifPresent(circuitBreaker::recordSuccess);
+	}
+
+	/**
+	 * Counts lost connections and failed connect and reconnect attempts, but not our own disconnects.
+	 */
+	@EventListener
+	public void onClientDisconnected(final MqttClientDisconnectedEvent event) {
+		if (event.getSource() != MqttDisconnectSource.USER) {
+			brokerNameOf(event.getClientConfig()).ifPresent(circuitBreaker::recordFailure);
+		}
+	}
+
+	public int size() {
+		return clients.size();
+	}
+
+	public Optional<String> brokerNameOf(final MqttClientConfig clientConfig) {
+		return clients.values().stream()
+				.filter(pooledClient -> pooledClient.connections.stream()
+						.anyMatch(connection -> clientConfig.equals(connection.client().getConfig())))
+				.map(pooledClient -> pooledClient.brokerName)
+				.findFirst();
+	}
+
+	private PooledClient pooledClient(final String brokerName, final BrokerConfiguration brokerConfiguration) {
+		final PooledClient[] replaced = new PooledClient[1];
+		final PooledClient pooledClient = clients.compute(brokerName, (name, existing) -> {
+			if (existing != null && existing.brokerConfiguration.equals(brokerConfiguration)) {
+				return existing;
+			}
+			replaced[0] = existing;
+			final int size = Math.max(1, brokerConfiguration.getConnections());
+			final List<Connection> connections = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				final Mqtt5ReactorClient mqtt5ReactorClient = mqtt5ClientFactory.apply(brokerConfiguration);
+				if (mqtt5ReactorClient == null) {
+					connections.forEach(connection -> mqttMetrics.unbindClient(connection.client()));
+					throw new BrokerConfigException(Message.INVALID_BROKER);
+				}
+				mqttMetrics.bindClient(name, mqtt5ReactorClient);
+				connections.add(connect(name, mqtt5ReactorClient));
+			}
+			return new PooledClient(name, brokerConfiguration, connections);
+		});
+		if (replaced[0] != null) {
+			replaced[0].close();
+		}
+		pooledClient.touch();
+		return pooledClient;
+	}
+
+	private Connection connect(final String brokerName, final Mqtt5ReactorClient client) {
+		return new Connection(client, clientConnectWorkFlow.connectSubscriber(brokerName, client)
+				.doOnNext(connAck -> LOGGER.info("Connecting to broker {} received ACK code: {}", brokerName,
+						connAck.getReasonCode()))
+				.then(Mono.just(client))
+				.cache(connected -> Duration.ofMillis(Long.MAX_VALUE), throwable -> Duration.ZERO,
+						() -> Duration.ZERO));
+	}
+
+	private Mqtt5ReactorClient connectInBackground(final String brokerName, final Connection connection) {
+		circuitBreaker.protect(brokerName, connection.connection())
+				.subscribe(connected -> { }, throwable -> LOGGER.debug("Connecting to broker {} failed", brokerName,
+						throwable));
+		return connection.client();
+	}
+
+	private record Connection(Mqtt5ReactorClient client, Mono<Mqtt5ReactorClient> connection) {
+	}
+
+	private final class PooledClient {
+		private final String brokerName;
+
+		private final BrokerConfiguration brokerConfiguration;
+
+		private final List<Connection> connections;
+
+		private final Comparator<Connection> byInFlight;
+
+		private final AtomicInteger leases = new AtomicInteger();
+
+		private final AtomicInteger nextUnordered = new AtomicInteger();
+
+		private volatile long lastUsed = System.nanoTime();
+
+		private PooledClient(final String brokerName, final BrokerConfiguration brokerConfiguration,
+				final List<Connection> connections) {
+			this.brokerName = brokerName;
+			this.brokerConfiguration = brokerConfiguration;
+			this.connections = List.copyOf(connections);
+			// connections that are not connected come last, whatever they have in flight
+			this.byInFlight = Comparator.comparingInt(connection -> connection.client().getState().isConnected()
+					? publishQueue.inFlight(brokerName, connection.client()) : Integer.MAX_VALUE);
+		}
+
+		private Connection primary() {
+			return connections.get(0);
+		}
+
+		private Connection select(final String topicName, final boolean ordered) {
+			final int size = connections.size();
+			if (size == 1) {
+				return primary();
+			}
+			if (ordered) {
+				return connections.get(Math.floorMod(topicName.hashCode(), size));
+			}
+			// the scan starts at a rotating connection so that ties do not all go to the first one
+			final int start = Math.floorMod(nextUnordered.getAndIncrement(), size);
+			Connection least = connections.get(start);
+			for (int i = 1; i < size; i++) {
+				final Connection candidate = connections.get((start + i) % size);
+				if (byInFlight.compare(candidate, least) < 0) {
+					least = candidate;
+				}
+			}
+			return least;
+		}
+
+		private void touch() {
+			lastUsed = System.nanoTime();
+		}
+
+		private void retain() {
+			leases.incrementAndGet();
+		}
+
+		private void release() {
+			leases.decrementAndGet();
+			touch();
+		}
+
+		private boolean isIdle(final long now, final Duration timeout) {
+			return leases.get() == 0 && now - lastUsed >= timeout.toNanos();
+		}
+
+		private void close() {
+			connections.forEach(connection -> {
+				final Mqtt5ReactorClient client = connection.client();
+				mqttMetrics.unbindClient(client);
+				publishQueue.close(brokerName, client);
+				Mono.defer(client::disconnect)
+						.doOnError(throwable -> LOGGER.debug("Disconnect of idle client failed", throwable))
+						.onErrorResume(throwable -> Mono.empty())
+						.subscribe();
+			});
+		}
+	}
+}
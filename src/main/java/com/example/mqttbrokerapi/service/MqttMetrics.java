@@ -0,0 +1,205 @@
+package com.example.mqttbrokerapi.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.hivemq.client.mqtt.MqttClientConfig;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+/**
+ * Micrometer meters of the publish, subscribe and connection paths, tagged by broker name.
+ * Meters are created once per broker and cached so the per-message cost is a counter increment.
+ */
+@Service
+public class MqttMetrics {
+	public static final String BROKER_TAG = "broker";
+
+	private final MeterRegistry meterRegistry;
+
+	private final ConcurrentMap<String, BrokerMeters> brokerMeters = new ConcurrentHashMap<>();
+
+	private final Map<MqttClientConfig, String> clientBrokerNames = new ConcurrentHashMap<>();
+
+	public MqttMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	public void bindClient(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final MqttClientConfig clientConfig = mqtt5ReactorClient.getConfig();
+		if (clientConfig != null) {
+			clientBrokerNames.put(clientConfig, brokerName);
+		}
+	}
+
+	public void unbindClient(final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final MqttClientConfig clientConfig = mqtt5ReactorClient.getConfig();
+		if (clientConfig != null) {
+			clientBrokerNames.remove(clientConfig);
+		}
+	}
+
+	public void clientConnected(final MqttClientConfig clientConfig) {
+		meters(brokerName(clientConfig)).connected.increment();
+	}
+
+	public void clientDisconnected(final MqttClientConfig clientConfig, final boolean reconnect) {
+		final BrokerMeters meters = meters(brokerName(clientConfig));
+		(reconnect ? meters.reconnecting : meters.disconnected).increment();
+	}
+
+	public void recordConnect(final String brokerName, final long startNanos, final boolean success) {
+		final BrokerMeters meters = meters(brokerName);
+		(success ? meters.connectSuccess : meters.connectFailure).record(System.nanoTime() - startNanos,
+				TimeUnit.NANOSECONDS);
+	}
+
+	public void recordPublish(final String brokerName, final long startNanos, final boolean success) {
+		final BrokerMeters meters = meters(brokerName);
+		(success ? meters.publishSuccess : meters.publishFailure).record(System.nanoTime() - startNanos,
+				TimeUnit.NANOSECONDS);
+	}
+
+	public void countPublished(final String brokerName, final boolean success) {
+		final BrokerMeters meters = meters(brokerName);
+		(success ? meters.publishedMessages : meters.failedMessages).increment();
+	}
+
+	public void countQueueOverflow(final String brokerName, final boolean dropped) {
+		final BrokerMeters meters = meters(brokerName);
+		(dropped ? meters.droppedMessages : meters.rejectedMessages).increment();
+	}
+
+	/**
+	 * Counter of messages a subscriber stream discarded because its buffer was full.
+	 */
+	public Counter droppedDeliveries(final String brokerName, final String overflowStrategy) {
+		return Counter.builder("mqtt.subscribe.dropped")
+				.tag(BROKER_TAG, brokerName)
+				.tag("overflow", overflowStrategy)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Counter of requests failed right away because the circuit breaker of the broker was open.
+	 */
+	public Counter circuitRejections(final String brokerName) {
+		return Counter.builder("mqtt.circuit.rejected")
+				.tag(BROKER_TAG, brokerName)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Counter of requests or batch messages rejected by a publish rate limit or stream cap of the broker.
+	 */
+	public Counter admissionRejections(final String brokerName, final String limit) {
+		return Counter.builder("mqtt.admission.rejected")
+				.tag(BROKER_TAG, brokerName)
+				.tag("limit", limit)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Timer of the latency from the HTTP publish to the delivery on a subscriber stream, see {@link DeliveryLatency}.
+	 */
+	public Timer deliveryLatency(final String brokerName, final String topic) {
+		return Timer.builder("mqtt.delivery.latency")
+				.tag(BROKER_TAG, brokerName)
+				.tag("topic", topic)
+				.publishPercentiles(0.5, 0.99, 0.999)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	public Counter receivedMessages(final String brokerName) {
+		return meters(brokerName).receivedMessages;
+	}
+
+	public void gauge(final String name, final String brokerName, final Supplier<Number> value) {
+		Gauge.builder(name, value)
+				.tag(BROKER_TAG, brokerName)
+				.strongReference(true)
+				.register(meterRegistry);
+	}
+
+	public void gauge(final String name, final Supplier<Number> value) {
+		Gauge.builder(name, value)
+				.strongReference(true)
+				.register(meterRegistry);
+	}
+
+	private String brokerName(final MqttClientConfig clientConfig) {
+		final String brokerName = clientBrokerNames.get(clientConfig);
+		return brokerName != null ? brokerName : clientConfig.getServerHost();
+	}
+
+	private BrokerMeters meters(final String brokerName) {
+		return brokerMeters.computeIfAbsent(brokerName, BrokerMeters::new);
+	}
+
+	private final class BrokerMeters {
+		private final Counter connected;
+
+		private final Counter reconnecting;
+
+		private final Counter disconnected;
+
+		private final Timer connectSuccess;
+
+		private final Timer connectFailure;
+
+		private final Timer publishSuccess;
+
+		private final Timer publishFailure;
+
+		private final Counter publishedMessages;
+
+		private final Counter failedMessages;
+
+		private final Counter rejectedMessages;
+
+		private final Counter droppedMessages;
+
+		private final Counter receivedMessages;
+
+		private BrokerMeters(final String brokerName) {
+			connected = counter("mqtt.client.connected", brokerName).register(meterRegistry);
+			reconnecting = counter("mqtt.client.disconnected", brokerName).tag("reconnect", "true")
+					.register(meterRegistry);
+			disconnected = counter("mqtt.client.disconnected", brokerName).tag("reconnect", "false")
+					.register(meterRegistry);
+			connectSuccess = timer("mqtt.client.connect", brokerName).tag("outcome", "success")
+					.register(meterRegistry);
+			connectFailure = timer("mqtt.client.connect", brokerName).tag("outcome", "failure")
+					.register(meterRegistry);
+			publishSuccess = timer("mqtt.publish.latency", brokerName).tag("outcome", "success")
+					.register(meterRegistry);
+			publishFailure = timer("mqtt.publish.latency", brokerName).tag("outcome", "failure")
+					.register(meterRegistry);
+			publishedMessages = counter("mqtt.publish.messages", brokerName).tag("outcome", "success")
+					.register(meterRegistry);
+			failedMessages = counter("mqtt.publish.messages", brokerName).tag("outcome", "failure")
+					.register(meterRegistry);
+			rejectedMessages = counter("mqtt.publish.queue.overflow", brokerName).tag("action", "rejected")
+					.register(meterRegistry);
+			droppedMessages = counter("mqtt.publish.queue.overflow", brokerName).tag("action", "dropped")
+					.register(meterRegistry);
+			receivedMessages = counter("mqtt.subscribe.messages", brokerName).register(meterRegistry);
+		}
+
+		private Counter.Builder counter(final String name, final String brokerName) {
+			return Counter.builder(name).tag(BROKER_TAG, brokerName);
+		}
+
+		private Timer.Builder timer(final String name, final String brokerName) {
+			return Timer.builder(name).tag(BROKER_TAG, brokerName).publishPercentileHistogram();
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.example.mqttbrokerapi.service;
+
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+
+/**
+ * The connections of a broker that share its publish traffic.
+ */
+@FunctionalInterface
+public interface PublishConnections {
+
+	/**
+	 * The client to publish a message on. Ordered messages of a topic always go to the same connection,
+	 * unordered ones to the connection with the fewest unacknowledged publishes.
+	 */
+	Mqtt5ReactorClient select(String topicName, boolean ordered);
+}
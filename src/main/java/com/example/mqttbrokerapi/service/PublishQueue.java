@@ -0,0 +1,297 @@
+package com.example.mqttbrokerapi.service;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.example.mqttbrokerapi.exception.PublishQueueFullException;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Write-behind publish queue with one long-lived publish flow per broker connection. Messages of all
+ * requests are handed to the client over that flow as soon as they are offered, so the client writes
+ * whatever arrived since its last write together, and are accounted against the memory budget of
+ * their connection until the broker acknowledged them; the {@link OverflowPolicy} decides what happens
+ * to a message that does not fit.
+ */
+@Service
+public class PublishQueue {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PublishQueue.class);
+
+	private static final Duration EMIT_TIMEOUT = Duration.ofSeconds(1);
+
+	public enum OverflowPolicy {
+		REJECT, BLOCK, DROP
+	}
+
+	private final ConcurrentMap<QueueKey, BrokerQueue> queues = new ConcurrentHashMap<>();
+
+	private final Set<String> instrumentedBrokers = ConcurrentHashMap.newKeySet();
+
+	private final MqttMetrics mqttMetrics;
+
+	private final long memoryBudget;
+
+	private final OverflowPolicy overflowPolicy;
+
+	public PublishQueue(MqttMetrics mqttMetrics,
+			@Value("${broker.publish.queue.memory-budget:64MB}") DataSize memoryBudget,
+			@Value("${broker.publish.queue.overflow:reject}") OverflowPolicy overflowPolicy) {
+		this.mqttMetrics = mqttMetrics;
+		this.memoryBudget = memoryBudget.toBytes();
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Queues the publish on the flow of the given client. The returned {@link Mono} completes once the
+	 * message is accepted or dropped, and fails with {@link PublishQueueFullException} when it is
+	 * rejected. The broker's answer is passed to {@code onResult}; {@code onError} is called instead
+	 * if the message is dropped or the publish flow fails.
+	 */
+	public Mono<Void> offer(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final Mqtt5Publish mqtt5Publish, final Consumer<Mqtt5PublishResult> onResult,
+			final Consumer<Throwable> onError) {
+		return offer(brokerName, mqtt5ReactorClient, mqtt5Publish, overflowPolicy, onResult, onError);
+	}
+
+	public Mono<Void> offer(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final Mqtt5Publish mqtt5Publish, final OverflowPolicy overflowPolicy,
+			final Consumer<Mqtt5PublishResult> onResult, final Consumer<Throwable> onError) {
+		return Mono.defer(() -> {
+			final PendingPublish pendingPublish = new PendingPublish(mqtt5Publish, size(mqtt5Publish), onResult, onError);
+			final BrokerQueue brokerQueue = queue(brokerName, mqtt5ReactorClient);
+			if (brokerQueue.tryOffer(pendingPublish)) {
+				return Mono.empty();
+			}
+			if (overflowPolicy == OverflowPolicy.BLOCK) {
+				return brokerQueue.await(pendingPublish);
+			}
+			if (overflowPolicy == OverflowPolicy.DROP) {
+				mqttMetrics.countQueueOverflow(brokerName, true);
+				onError.accept(new PublishQueueFullException(brokerName));
+				return Mono.empty();
+			}
+			mqttMetrics.countQueueOverflow(brokerName, false);
+			return Mono.error(new PublishQueueFullException(brokerName));
+		});
+	}
+
+	public long queuedBytes(final String brokerName) {
+		return queues.entrySet().stream()
+				.filter(entry -> entry.getKey().brokerName().equals(brokerName))
+				.mapToLong(entry -> entry.getValue().bytes.get())
+				.sum();
+	}
+
+	/**
+	 * The number of messages queued on the flow of the given client that the broker did not acknowledge yet.
+	 */
+	public int inFlight(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final BrokerQueue brokerQueue = queues.get(new QueueKey(brokerName, mqtt5ReactorClient));
+		return brokerQueue == null ? 0 : brokerQueue.pending.size();
+	}
+
+	/**
+	 * Completes the publish flow of a client that is closed; messages already queued are still written.
+	 */
+	public void close(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final BrokerQueue brokerQueue = queues.remove(new QueueKey(brokerName, mqtt5ReactorClient));
+		if (brokerQueue != null) {
+			brokerQueue.close();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		queues.values().forEach(BrokerQueue::close);
+		queues.clear();
+	}
+
+	private BrokerQueue queue(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final BrokerQueue[] replaced = new BrokerQueue[1];
+		final BrokerQueue[] created = new BrokerQueue[1];
+		final BrokerQueue brokerQueue = queues.compute(new QueueKey(brokerName, mqtt5ReactorClient), (key, existing) -> {
+			if (existing != null && !existing.failed) {
+				return existing;
+			}
+			replaced[0] = existing;
+			created[0] = new BrokerQueue(key);
+			return created[0];
+		});
+		if (replaced[0] != null) {
+			replaced[0].close();
+		}
+		if (created[0] != null) {
+			created[0].start();
+		}
+		if (instrumentedBrokers.add(brokerName)) {
+			mqttMetrics.gauge("mqtt.publish.queue.bytes", brokerName, () -> queuedBytes(brokerName));
+		}
+		return brokerQueue;
+	}
+
+	private static long size(final Mqtt5Publish mqtt5Publish) {
+		return mqtt5Publish.getTopic().toByteBuffer().remaining()
+				+ mqtt5Publish.getPayload().map(payload -> (long) payload.remaining()).orElse(0L);
+	}
+
+	private record QueueKey(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient) {
+	}
+
+	private record PendingPublish(Mqtt5Publish mqtt5Publish, long size, Consumer<Mqtt5PublishResult> onResult,
+			Consumer<Throwable> onError) {
+	}
+
+	private record Waiter(PendingPublish pendingPublish, MonoSink<Void> sink) {
+	}
+
+	private final class BrokerQueue {
+		private final QueueKey key;
+
+		private final String brokerName;
+
+		private final Mqtt5ReactorClient mqtt5ReactorClient;
+
+		private final Sinks.Many<PendingPublish> queued = Sinks.many().unicast().onBackpressureBuffer();
+
+		private final Map<Mqtt5Publish, PendingPublish> pending = Collections.synchronizedMap(new IdentityHashMap<>());
+
+		private final ConcurrentLinkedDeque<Waiter> waiters = new ConcurrentLinkedDeque<>();
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private volatile boolean failed;
+
+		private BrokerQueue(final QueueKey key) {
+			this.key = key;
+			this.brokerName = key.brokerName();
+			this.mqtt5ReactorClient = key.mqtt5ReactorClient();
+		}
+
+		private void start() {
+			mqtt5ReactorClient
+					.publish(queued.asFlux().map(PendingPublish::mqtt5Publish))
+					.subscribe(this::complete, this::fail);
+		}
+
+		private boolean tryOffer(final PendingPublish pendingPublish) {
+			if (!reserve(pendingPublish.size)) {
+				return false;
+			}
+			pending.put(pendingPublish.mqtt5Publish, pendingPublish);
+			final Sinks.EmitResult emitResult = emit(pendingPublish);
+			if (emitResult.isFailure() && pending.remove(pendingPublish.mqtt5Publish) != null) {
+				release(pendingPublish);
+				pendingPublish.onError.accept(new IllegalStateException("Publish flow of broker " + brokerName
+						+ " did not take the message: " + emitResult));
+			}
+			return true;
+		}
+
+		/**
+		 * Emits the publish, retrying for at most {@code EMIT_TIMEOUT} while another thread emits.
+		 */
+		private Sinks.EmitResult emit(final PendingPublish pendingPublish) {
+			Sinks.EmitResult emitResult = queued.tryEmitNext(pendingPublish);
+			if (emitResult == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+				final Sinks.EmitFailureHandler retry = Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT);
+				while (emitResult.isFailure() && retry.onEmitFailure(SignalType.ON_NEXT, emitResult)) {
+					emitResult = queued.tryEmitNext(pendingPublish);
+				}
+			}
+			return emitResult;
+		}
+
+		private Mono<Void> await(final PendingPublish pendingPublish) {
+			return Mono.create(sink -> {
+				final Waiter waiter = new Waiter(pendingPublish, sink);
+				waiters.addLast(waiter);
+				sink.onCancel(() -> waiters.remove(waiter));
+				wakeUpWaiters();
+			});
+		}
+
+		private boolean reserve(final long size) {
+			while (true) {
+				final long current = bytes.get();
+				// an empty queue always takes one message so that oversized messages cannot starve
+				if (current > 0 && current + size > memoryBudget) {
+					return false;
+				}
+				if (bytes.compareAndSet(current, current + size)) {
+					return true;
+				}
+			}
+		}
+
+		private void complete(final Mqtt5PublishResult mqtt5PublishResult) {
+			final PendingPublish pendingPublish = pending.remove(mqtt5PublishResult.getPublish());
+			if (pendingPublish == null) {
+				return;
+			}
+			release(pendingPublish);
+			pendingPublish.onResult.accept(mqtt5PublishResult);
+		}
+
+		private void fail(final Throwable throwable) {
+			failed = true;
+			queues.remove(key, this);
+			LOGGER.warn("Publish flow of broker {} failed", brokerName, throwable);
+			final List<PendingPublish> lost;
+			synchronized (pending) {
+				lost = List.copyOf(pending.values());
+				pending.clear();
+			}
+			lost.forEach(pendingPublish -> {
+				release(pendingPublish);
+				pendingPublish.onError.accept(throwable);
+			});
+			Waiter waiter;
+			while ((waiter = waiters.pollFirst()) != null) {
+				// a waiting message is lost just like a queued one, so its owner can resend it
+				waiter.pendingPublish.onError.accept(throwable);
+				waiter.sink.error(throwable);
+			}
+		}
+
+		private void release(final PendingPublish pendingPublish) {
+			bytes.addAndGet(-pendingPublish.size);
+			wakeUpWaiters();
+		}
+
+		private void wakeUpWaiters() {
+			Waiter waiter;
+			while (!failed && (waiter = waiters.pollFirst()) != null) {
+				if (!tryOffer(waiter.pendingPublish)) {
+					waiters.addFirst(waiter);
+					return;
+				}
+				waiter.sink.success();
+			}
+		}
+
+		private void close() {
+			queued.emitComplete(Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+		}
+	}
+}
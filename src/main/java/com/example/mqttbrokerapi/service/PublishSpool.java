@@ -0,0 +1,451 @@
+package com.example.mqttbrokerapi.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import com.example.mqttbrokerapi.config.MqttClientConnectedEvent;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.exceptions.Mqtt5PubAckException;
+import com.hivemq.client.mqtt.mqtt5.exceptions.Mqtt5PubRecException;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Local spool for publishes to brokers whose client is not connected. Messages are appended to
+ * memory-mapped segment files per broker and replayed in order through the {@link PublishQueue}
+ * once the client connects; a segment is deleted after all of its messages were acknowledged.
+ * Replay is at least once: after a failed drain, a publish the broker did not answer or a restart
+ * the unacknowledged segments are sent again from their start. Segment files are written, created
+ * and deleted on a single writer thread, never on the calling event loop.
+ */
+@Service
+public class PublishSpool {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PublishSpool.class);
+
+	static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+	private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0);
+
+	private final ConcurrentMap<String, BrokerSpool> spools = new ConcurrentHashMap<>();
+
+	private final Scheduler writer = Schedulers.newSingle("publish-spool");
+
+	private final PublishQueue publishQueue;
+
+	private final MqttClientRegistry mqttClientRegistry;
+
+	private final BrokerConfigRepository brokerConfigRepository;
+
+	private final MqttMetrics mqttMetrics;
+
+	private final boolean enabled;
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	public PublishSpool(PublishQueue publishQueue, MqttClientRegistry mqttClientRegistry,
+			BrokerConfigRepository brokerConfigRepository, MqttMetrics mqttMetrics,
+			@Value("${broker.spool.enabled:false}") boolean enabled,
+			@Value("${broker.spool.directory:data/spool}") String directory,
+			@Value("${broker.spool.segment-size:16MB}") DataSize segmentSize) {
+		this.publishQueue = publishQueue;
+		this.mqttClientRegistry = mqttClientRegistry;
+		this.brokerConfigRepository = brokerConfigRepository;
+		this.mqttMetrics = mqttMetrics;
+		this.enabled = enabled;
+		this.directory = Path.of(directory);
+		this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+	}
+
+	@PostConstruct
+	public void recover() throws IOException {
+		if (!enabled || !Files.isDirectory(directory)) {
+			return;
+		}
+		try (DirectoryStream<Path> brokerDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+			for (Path brokerDirectory : brokerDirectories) {
+				final String brokerName = URLDecoder.decode(brokerDirectory.getFileName().toString(),
+						StandardCharsets.UTF_8);
+				final BrokerSpool brokerSpool = spool(brokerName);
+				brokerSpool.recover();
+				if (brokerSpool.hasUnsent()) {
+					LOGGER.info("Recovered {} spooled messages of broker {}", brokerSpool.pendingMessages(), brokerName);
+					connect(brokerName);
+				}
+			}
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		Mono.fromRunnable(() -> spools.values().forEach(BrokerSpool::force))
+				.subscribeOn(writer)
+				.block();
+		writer.dispose();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Whether a publish has to go to the spool: the client is not connected, or older spooled messages
+	 * have not been handed to the publish queue yet and would otherwise be overtaken.
+	 */
+	public boolean shouldSpool(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		if (!enabled) {
+			return false;
+		}
+		final BrokerSpool brokerSpool = spools.get(brokerName);
+		return !mqtt5ReactorClient.getState().isConnected() || (brokerSpool != null && brokerSpool.hasUnsent());
+	}
+
+	public Mono<Void> append(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final Mqtt5Publish mqtt5Publish) {
+		return Mono.<Void>fromRunnable(() -> {
+					spool(brokerName).append(mqtt5Publish);
+					if (mqtt5ReactorClient.getState().isConnected()) {
+						drain(brokerName, mqtt5ReactorClient);
+					}
+				})
+				.subscribeOn(writer);
+	}
+
+	public long pendingMessages(final String brokerName) {
+		final BrokerSpool brokerSpool = spools.get(brokerName);
+		return brokerSpool == null ? 0 : brokerSpool.pendingMessages();
+	}
+
+	@EventListener
+	public void onClientConnected(final MqttClientConnectedEvent event) {
+		mqttClientRegistry.brokerNameOf(event.getClientConfig()).ifPresent(brokerName -> {
+			final BrokerSpool brokerSpool = spools.get(brokerName);
+			if (brokerSpool != null && brokerSpool.hasUnsent()) {
+				connect(brokerName);
+			}
+		});
+	}
+
+	private BrokerSpool spool(final String brokerName) {
+		return spools.computeIfAbsent(brokerName, name -> {
+			mqttMetrics.gauge("mqtt.publish.spool.messages", name, () -> pendingMessages(name));
+			return new BrokerSpool(directory.resolve(URLEncoder.encode(name, StandardCharsets.UTF_8)));
+		});
+	}
+
+	private void connect(final String brokerName) {
+		brokerConfigRepository
+				.lookupBrokerConfiguration(brokerName)
+				.flatMap(brokerConfiguration -> mqttClientRegistry.acquire(brokerName, brokerConfiguration))
+				.filter(mqtt5ReactorClient -> mqtt5ReactorClient.getState().isConnected())
+				.subscribe(mqtt5ReactorClient -> drain(brokerName, mqtt5ReactorClient),
+						throwable -> LOGGER.debug("Connecting to broker {} to drain its spool failed", brokerName,
+								throwable));
+	}
+
+	private void drain(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient) {
+		final BrokerSpool brokerSpool = spools.get(brokerName);
+		if (brokerSpool == null || !brokerSpool.draining.compareAndSet(false, true)) {
+			return;
+		}
+		final long generation = brokerSpool.generation();
+		LOGGER.debug("Draining {} spooled messages of broker {}", brokerSpool.pendingMessages(), brokerName);
+		Flux.<SpooledPublish>generate(sink -> {
+					final SpooledPublish next = brokerSpool.next(generation);
+					if (next == null) {
+						sink.complete();
+					} else {
+						sink.next(next);
+					}
+				})
+				.concatMap(spooledPublish -> publishQueue
+						.offer(brokerName, mqtt5ReactorClient, spooledPublish.mqtt5Publish(),
+								PublishQueue.OverflowPolicy.BLOCK, pubResult -> {
+									mqttMetrics.countPublished(brokerName, pubResult.getError().isEmpty());
+									if (pubResult.getError().map(PublishSpool::isAnswered).orElse(true)) {
+										brokerSpool.acknowledge(spooledPublish);
+									} else {
+										brokerSpool.rewind(spooledPublish);
+									}
+								}, throwable -> brokerSpool.rewind(spooledPublish))
+						.doFinally(signalType -> brokerSpool.offered(spooledPublish)))
+				.doFinally(signalType -> {
+					brokerSpool.draining.set(false);
+					// appends that raced with the end of the drain found it still running
+					if (brokerSpool.hasUnsent() && mqtt5ReactorClient.getState().isConnected()) {
+						drain(brokerName, mqtt5ReactorClient);
+					}
+				})
+				.subscribe(spooledPublish -> { },
+						throwable -> LOGGER.warn("Draining the spool of broker {} failed", brokerName, throwable));
+	}
+
+	/**
+	 * Whether the error is the broker's negative acknowledgement, which a resend would only repeat. Any
+	 * other error, such as the session ending or the connection dropping, leaves the message unanswered.
+	 */
+	private static boolean isAnswered(final Throwable error) {
+		return error instanceof Mqtt5PubAckException || error instanceof Mqtt5PubRecException;
+	}
+
+	private static int checksum(final ByteBuffer buffer, final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(buffer.slice(offset, length));
+		return (int) crc.getValue();
+	}
+
+	private record SpooledPublish(Segment segment, Mqtt5Publish mqtt5Publish, long generation) {
+	}
+
+	private static final class Segment {
+		private final Path file;
+
+		private final MappedByteBuffer buffer;
+
+		private int writePosition;
+
+		private int readPosition;
+
+		private int records;
+
+		private int acknowledged;
+
+		private boolean sealed;
+
+		private Segment(final Path file, final MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Segment files of one broker. Each record is {@code [int length][int crc][byte qos][short topic
+	 * length][topic][payload]}; the length is written last so that a zero length marks the end of the
+	 * written part of a segment.
+	 */
+	private final class BrokerSpool {
+		private final Path directory;
+
+		private final Deque<Segment> segments = new ArrayDeque<>();
+
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private long nextSegmentId;
+
+		private long generation;
+
+		private int inHand;
+
+		private BrokerSpool(final Path directory) {
+			this.directory = directory;
+		}
+
+		private synchronized void append(final Mqtt5Publish mqtt5Publish) {
+			final byte[] topic = mqtt5Publish.getTopic().toString().getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer payload = mqtt5Publish.getPayload().orElse(EMPTY_PAYLOAD);
+			final int length = 1 + Short.BYTES + topic.length + payload.remaining();
+			Segment tail = segments.peekLast();
+			if (tail == null || tail.sealed || tail.buffer.capacity() - tail.writePosition < RECORD_HEADER_BYTES + length) {
+				if (tail != null) {
+					tail.sealed = true;
+				}
+				tail = createSegment(Math.max(segmentSize, RECORD_HEADER_BYTES + length));
+			}
+			final MappedByteBuffer buffer = tail.buffer;
+			final int start = tail.writePosition;
+			buffer.position(start + RECORD_HEADER_BYTES);
+			buffer.put((byte) mqtt5Publish.getQos().getCode())
+					.putShort((short) topic.length)
+					.put(topic)
+					.put(payload);
+			buffer.putInt(start + Integer.BYTES, checksum(buffer, start + RECORD_HEADER_BYTES, length));
+			buffer.putInt(start, length);
+			tail.writePosition = start + RECORD_HEADER_BYTES + length;
+			tail.records++;
+		}
+
+		private synchronized SpooledPublish next(final long drainGeneration) {
+			if (drainGeneration != generation) {
+				return null;
+			}
+			for (Segment segment : segments) {
+				if (segment.readPosition < segment.writePosition) {
+					final ByteBuffer buffer = segment.buffer;
+					final int start = segment.readPosition;
+					final int length = buffer.getInt(start);
+					int position = start + RECORD_HEADER_BYTES;
+					final MqttQos qos = MqttQos.fromCode(buffer.get(position));
+					final int topicLength = buffer.getShort(position + 1) & 0xFFFF;
+					position += 1 + Short.BYTES;
+					final byte[] topic = new byte[topicLength];
+					buffer.get(position, topic);
+					position += topicLength;
+					segment.readPosition = start + RECORD_HEADER_BYTES + length;
+					inHand++;
+					return new SpooledPublish(segment, Mqtt5Publish.builder()
+							.topic(new String(topic, StandardCharsets.UTF_8))
+							.qos(qos)
+							.payload(buffer.slice(position, segment.readPosition - position))
+							.build(), generation);
+				}
+			}
+			return null;
+		}
+
+		private synchronized void offered(final SpooledPublish spooledPublish) {
+			if (spooledPublish.generation() == generation) {
+				inHand--;
+			}
+		}
+
+		private synchronized void acknowledge(final SpooledPublish spooledPublish) {
+			if (spooledPublish.generation() != generation) {
+				return;
+			}
+			spooledPublish.segment().acknowledged++;
+			Segment head;
+			while ((head = segments.peekFirst()) != null && head.acknowledged == head.records
+					&& head.readPosition == head.writePosition) {
+				segments.pollFirst();
+				final Segment acknowledged = head;
+				writer.schedule(() -> delete(acknowledged));
+			}
+		}
+
+		/**
+		 * The publish flow failed or a publish was not answered, so messages after the last acknowledged
+		 * segment may be lost. Start over with the oldest remaining segment on the next drain.
+		 */
+		private synchronized void rewind(final SpooledPublish spooledPublish) {
+			if (spooledPublish.generation() != generation) {
+				return;
+			}
+			generation++;
+			inHand = 0;
+			for (Segment segment : segments) {
+				segment.readPosition = 0;
+				segment.acknowledged = 0;
+			}
+		}
+
+		private synchronized boolean hasUnsent() {
+			if (inHand > 0) {
+				return true;
+			}
+			for (Segment segment : segments) {
+				if (segment.readPosition < segment.writePosition) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private synchronized long generation() {
+			return generation;
+		}
+
+		private synchronized long pendingMessages() {
+			long pending = 0;
+			for (Segment segment : segments) {
+				pending += segment.records - segment.acknowledged;
+			}
+			return pending;
+		}
+
+		private synchronized void recover() throws IOException {
+			final List<Path> files = new ArrayList<>();
+			try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+				segmentFiles.forEach(files::add);
+			}
+			files.sort(null);
+			for (Path file : files) {
+				final String name = file.getFileName().toString();
+				nextSegmentId = Math.max(nextSegmentId,
+						Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+				final Segment segment = new Segment(file, map(file, Files.size(file)));
+				final ByteBuffer buffer = segment.buffer;
+				while (buffer.capacity() - segment.writePosition >= RECORD_HEADER_BYTES) {
+					final int start = segment.writePosition;
+					final int length = buffer.getInt(start);
+					if (length <= 0 || length > buffer.capacity() - start - RECORD_HEADER_BYTES
+							|| buffer.getInt(start + Integer.BYTES) != checksum(buffer, start + RECORD_HEADER_BYTES, length)) {
+						break;
+					}
+					segment.writePosition = start + RECORD_HEADER_BYTES + length;
+					segment.records++;
+				}
+				segment.sealed = true;
+				if (segment.records == 0) {
+					delete(segment);
+				} else {
+					segments.addLast(segment);
+				}
+			}
+		}
+
+		private synchronized void force() {
+			segments.forEach(segment -> segment.buffer.force());
+		}
+
+		private Segment createSegment(final int size) {
+			final Path file = directory.resolve(String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX));
+			try {
+				Files.createDirectories(directory);
+				final Segment segment = new Segment(file, map(file, size));
+				segments.addLast(segment);
+				return segment;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private MappedByteBuffer map(final Path file, final long size) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		private void delete(final Segment segment) {
+			try {
+				Files.deleteIfExists(segment.file);
+			} catch (IOException e) {
+				LOGGER.warn("Deleting spool segment {} failed", segment.file, e);
+			}
+		}
+	}
+}
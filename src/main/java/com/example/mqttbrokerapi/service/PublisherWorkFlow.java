@@ -1,35 +1,140 @@
 package com.example.mqttbrokerapi.service;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.example.mqttbrokerapi.dto.PublishBatchResultDTO;
+import com.example.mqttbrokerapi.dto.PublishMessageDTO;
+import com.google.common.base.Strings;
 import com.hivemq.client.mqtt.datatypes.MqttQos;
 import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishBuilder;
 import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 @Service
 public class PublisherWorkFlow {
-	private static final Logger LOGGER = LoggerFactory.getLogger(ClientConnectWorkFlow.class);
+	private static final Logger LOGGER = LoggerFactory.getLogger(PublisherWorkFlow.class);
+	private final MessageTracer messageTracer;
+	private final MqttMetrics mqttMetrics;
+	private final PublishQueue publishQueue;
+	private final PublishSpool publishSpool;
+	private final DeliveryLatency deliveryLatency;
 
-	public Flux<Mqtt5PublishResult> publishWorkFlow(final Mqtt5ReactorClient mqtt5ReactorClient,
-			final String message, final String topicName) {
-		return mqtt5ReactorClient
-				.publish(pub -> pub.onNext(buildPayload(message, topicName)))
-				.doOnError(throwable -> LOGGER.error("Error during publishing ", throwable))
-				.doOnNext(pubResult -> LOGGER.info("Published " + new String(pubResult.getPublish().getPayloadAsBytes())));
+	public PublisherWorkFlow(MessageTracer messageTracer, MqttMetrics mqttMetrics, PublishQueue publishQueue,
+			PublishSpool publishSpool, DeliveryLatency deliveryLatency) {
+		this.messageTracer = messageTracer;
+		this.mqttMetrics = mqttMetrics;
+		this.publishQueue = publishQueue;
+		this.publishSpool = publishSpool;
+		this.deliveryLatency = deliveryLatency;
 	}
 
-	public Mqtt5Publish buildPayload(final String payload, final String topicName) {
-		return Mqtt5Publish
+	/**
+	 * Whether publishes without {@code awaitAck} are spooled to disk while the broker is not connected,
+	 * so callers do not need to wait for the connection.
+	 */
+	public boolean spoolsWhileDisconnected() {
+		return publishSpool.isEnabled();
+	}
+
+	/**
+	 * Queues the message on the broker's {@link PublishQueue}, or appends it to the {@link PublishSpool}
+	 * while the broker is not connected. With {@code awaitAck} the returned {@link Mono} emits the
+	 * broker's answer, otherwise it completes as soon as the message is queued or spooled.
+	 */
+	public Mono<Mqtt5PublishResult> publishWorkFlow(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final String message, final String topicName, final MqttQos qos, final boolean awaitAck) {
+		return publish(brokerName, mqtt5ReactorClient, buildPayload(message, topicName, qos), awaitAck);
+	}
+
+	public Mono<Mqtt5PublishResult> publishWorkFlow(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final ByteBuffer payload, final String topicName, final MqttQos qos, final boolean awaitAck) {
+		return publish(brokerName, mqtt5ReactorClient, buildPayload(payload, topicName, qos), awaitAck);
+	}
+
+	private Mono<Mqtt5PublishResult> publish(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final Mqtt5Publish mqtt5Publish, final boolean awaitAck) {
+		return Mono.defer(() -> {
+			if (!awaitAck && publishSpool.shouldSpool(brokerName, mqtt5ReactorClient)) {
+				return publishSpool.append(brokerName, mqtt5ReactorClient, mqtt5Publish).then(Mono.empty());
+			}
+			final long start = System.nanoTime();
+			final Sinks.One<Mqtt5PublishResult> acknowledgement = Sinks.one();
+			return publishQueue
+					.offer(brokerName, mqtt5ReactorClient, mqtt5Publish, pubResult -> {
+						final boolean success = pubResult.getError().isEmpty();
+						if (!success) {
+							LOGGER.warn("Publishing to {} was not acknowledged", mqtt5Publish.getTopic(),
+									pubResult.getError().get());
+						}
+						mqttMetrics.recordPublish(brokerName, start, success);
+						mqttMetrics.countPublished(brokerName, success);
+						messageTracer.tracePublished(brokerName, pubResult.getPublish());
+						acknowledgement.tryEmitValue(pubResult);
+					}, throwable -> {
+						LOGGER.debug("Publishing to {} failed", mqtt5Publish.getTopic(), throwable);
+						mqttMetrics.recordPublish(brokerName, start, false);
+						acknowledgement.tryEmitError(throwable);
+					})
+					.then(awaitAck ? acknowledgement.asMono() : Mono.empty());
+		});
+	}
+
+	/**
+	 * Publishes every valid message on the connection selected for its topic, see {@link PublishConnections#select}.
+	 */
+	public Mono<PublishBatchResultDTO> publishBatchWorkFlow(final String brokerName,
+			final PublishConnections publishConnections, final Flux<PublishMessageDTO> messages, final MqttQos qos,
+			final boolean ordered) {
+		final AtomicLong published = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong rejected = new AtomicLong();
+		return messages
+				.filter(message -> {
+					final boolean valid = !Strings.isNullOrEmpty(message.getTopic()) && message.getPayload() != null;
+					if (!valid) {
+						rejected.incrementAndGet();
+					}
+					return valid;
+				})
+				.flatMap(message -> publish(brokerName, publishConnections.select(message.getTopic(), ordered),
+						buildPayload(message.getPayload(), message.getTopic(), qos), true)
+						.doOnNext(pubResult -> (pubResult.getError().isEmpty() ? published : failed).incrementAndGet())
+						.onErrorResume(throwable -> {
+							failed.incrementAndGet();
+							return Mono.empty();
+						}))
+				.then(Mono.fromSupplier(() -> PublishBatchResultDTO.builder()
+						.published(published.get())
+						.failed(failed.get())
+						.rejected(rejected.get())
+						.build()));
+	}
+
+	public Mqtt5Publish buildPayload(final String payload, final String topicName, final MqttQos qos) {
+		return buildPayload(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)), topicName, qos);
+	}
+
+	/**
+	 * Builds the publish, stamped with its publish time and a trace id when {@link DeliveryLatency} stamps.
+	 */
+	public Mqtt5Publish buildPayload(final ByteBuffer payload, final String topicName, final MqttQos qos) {
+		final Mqtt5PublishBuilder.Complete mqtt5Publish = Mqtt5Publish
 				.builder()
 				.topic(topicName)
-				.qos(MqttQos.AT_LEAST_ONCE)
-				.payload(payload.getBytes(StandardCharsets.UTF_8))
-				.retain(false)
-				.build();
+				.qos(qos)
+				.payload(payload)
+				.retain(false);
+		return deliveryLatency.isStamping()
+				? mqtt5Publish.userProperties(deliveryLatency.stamp()).build()
+				: mqtt5Publish.build();
 	}
 }
@@ -0,0 +1,10 @@
+package com.example.mqttbrokerapi.service;
+
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+
+/**
+ * A message received from a broker together with its {@link ReplayBuffer} offset and the time, in
+ * epoch milliseconds, it was received.
+ */
+public record ReceivedMessage(long offset, long receivedAt, Mqtt5Publish mqtt5Publish) {
+}
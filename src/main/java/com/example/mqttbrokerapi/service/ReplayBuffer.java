@@ -0,0 +1,260 @@
+package com.example.mqttbrokerapi.service;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Recent messages of the most recently active topics, kept in one fixed-size off-heap ring per broker
+ * and topic so that a reconnecting subscriber can replay what it missed. A ring is allocated once a
+ * stream that can replay is subscribed to its topic, see {@link #retain}, and stays until its topic is
+ * evicted; messages of other topics are not copied. Every received message gets
+ * an offset from one sequence, so offsets increase across all topics and a wildcard subscriber can
+ * resume from a single offset. The sequence starts at the current time in microseconds, so offsets
+ * keep increasing across restarts.
+ */
+@Service
+public class ReplayBuffer {
+	private static final int HEADER_BYTES = 2 * Long.BYTES + Integer.BYTES;
+
+	private static final int LENGTH_POSITION = 2 * Long.BYTES;
+
+	private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+	private final Cache<TopicKey, TopicRing> rings;
+
+	private final ConcurrentMap<TopicKey, Integer> replayFilters = new ConcurrentHashMap<>();
+
+	private final int topicCapacity;
+
+	public ReplayBuffer(MqttMetrics mqttMetrics,
+			@Value("${broker.replay.topics:64}") long topics,
+			@Value("${broker.replay.topic-capacity:256KB}") DataSize topicCapacity) {
+		this.rings = CacheBuilder.newBuilder()
+				.maximumSize(topics)
+				.build();
+		this.topicCapacity = (int) topicCapacity.toBytes();
+		mqttMetrics.gauge("mqtt.replay.topics", rings::size);
+	}
+
+	/**
+	 * Records the message in the ring of its topic and returns its offset. A message delivered again by
+	 * an overlapping broker subscription keeps its offset and is recorded once.
+	 */
+	public long record(final String brokerName, final Mqtt5Publish mqtt5Publish) {
+		return record(brokerName, mqtt5Publish, System.currentTimeMillis());
+	}
+
+	public long record(final String brokerName, final Mqtt5Publish mqtt5Publish, final long receivedAt) {
+		final String topic = mqtt5Publish.getTopic().toString();
+		try {
+			return rings.get(new TopicKey(brokerName, topic), () -> new TopicRing(topic, isReplayed(brokerName, topic)))
+					.append(mqtt5Publish, receivedAt);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Records the messages of the topics matching the filter from now on, for a stream that can replay
+	 * them later. Every call is paired with a {@link #release} once the stream ends.
+	 */
+	public void retain(final String brokerName, final String topicFilter) {
+		replayFilters.merge(new TopicKey(brokerName, topicFilter), 1, Integer::sum);
+		rings.asMap().forEach((key, ring) -> {
+			if (key.brokerName().equals(brokerName) && TopicTrie.covers(topicFilter, key.topic())) {
+				ring.allocate();
+			}
+		});
+	}
+
+	/**
+	 * Stops allocating rings for new topics matching the filter; the allocated ones keep recording.
+	 */
+	public void release(final String brokerName, final String topicFilter) {
+		replayFilters.computeIfPresent(new TopicKey(brokerName, topicFilter), (key, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * The recorded messages of all topics matching the filter from {@code fromOffset} on, in offset order,
+	 * up to the returned {@link History#head()}; every later message has an offset of at least the head.
+	 * Recorded messages keep their topic, payload and receive time only.
+	 */
+	public History history(final String brokerName, final String topicFilter, final long fromOffset) {
+		final long head = sequence.get();
+		final List<ReceivedMessage> messages = new ArrayList<>();
+		rings.asMap().forEach((key, ring) -> {
+			if (key.brokerName().equals(brokerName) && TopicTrie.covers(topicFilter, key.topic())) {
+				ring.read(fromOffset, head, messages);
+			}
+		});
+		messages.sort(Comparator.comparingLong(ReceivedMessage::offset));
+		return new History(head, messages);
+	}
+
+	public record History(long head, List<ReceivedMessage> messages) {
+	}
+
+	private boolean isReplayed(final String brokerName, final String topic) {
+		return replayFilters.keySet().stream()
+				.anyMatch(key -> key.brokerName().equals(brokerName) && TopicTrie.covers(key.topic(), topic));
+	}
+
+	private record TopicKey(String brokerName, String topic) {
+	}
+
+	/**
+	 * Records of {@code [offset][receivedAt][length][payload]} laid out back to back over a direct buffer. Positions
+	 * grow without bound and wrap modulo the capacity; the oldest records are evicted to make room. Until the
+	 * buffer is allocated the ring only hands out offsets.
+	 */
+	private final class TopicRing {
+		private final String topic;
+
+		private ByteBuffer buffer;
+
+		private long readPosition;
+
+		private long writePosition;
+
+		// identifies a repeated delivery without keeping the message and its payload alive
+		private WeakReference<Mqtt5Publish> lastPublish = new WeakReference<>(null);
+
+		private long lastOffset;
+
+		private TopicRing(final String topic, final boolean replayed) {
+			this.topic = topic;
+			if (replayed) {
+				allocate();
+			}
+		}
+
+		private synchronized void allocate() {
+			if (buffer == null) {
+				buffer = ByteBuffer.allocateDirect(topicCapacity);
+			}
+		}
+
+		private synchronized long append(final Mqtt5Publish mqtt5Publish, final long receivedAt) {
+			if (mqtt5Publish == lastPublish.get()) {
+				return lastOffset;
+			}
+			final long offset = sequence.getAndIncrement();
+			lastPublish = new WeakReference<>(mqtt5Publish);
+			lastOffset = offset;
+			if (buffer == null) {
+				return offset;
+			}
+			final ByteBuffer payload = mqtt5Publish.getPayload().orElse(ByteBuffer.allocate(0));
+			final int size = HEADER_BYTES + payload.remaining();
+			if (size > buffer.capacity()) {
+				return offset;
+			}
+			while (writePosition + size - readPosition > buffer.capacity()) {
+				readPosition += HEADER_BYTES + getInt(readPosition + LENGTH_POSITION);
+			}
+			putLong(writePosition, offset);
+			putLong(writePosition + Long.BYTES, receivedAt);
+			putInt(writePosition + LENGTH_POSITION, payload.remaining());
+			put(writePosition + HEADER_BYTES, payload.duplicate());
+			writePosition += size;
+			return offset;
+		}
+
+		private synchronized void read(final long fromOffset, final long head, final List<ReceivedMessage> messages) {
+			if (buffer == null) {
+				return;
+			}
+			long position = readPosition;
+			while (position < writePosition) {
+				final long offset = getLong(position);
+				final int length = getInt(position + LENGTH_POSITION);
+				if (offset >= fromOffset && offset < head) {
+					final byte[] payload = new byte[length];
+					get(position + HEADER_BYTES, payload);
+					messages.add(new ReceivedMessage(offset, getLong(position + Long.BYTES), Mqtt5Publish.builder()
+							.topic(topic)
+							.payload(payload)
+							.build()));
+				}
+				position += HEADER_BYTES + length;
+			}
+		}
+
+		private void putLong(final long position, final long value) {
+			final int index = index(position);
+			if (index + Long.BYTES <= buffer.capacity()) {
+				buffer.putLong(index, value);
+			} else {
+				put(position, ByteBuffer.allocate(Long.BYTES).putLong(value).flip());
+			}
+		}
+
+		private void putInt(final long position, final int value) {
+			final int index = index(position);
+			if (index + Integer.BYTES <= buffer.capacity()) {
+				buffer.putInt(index, value);
+			} else {
+				put(position, ByteBuffer.allocate(Integer.BYTES).putInt(value).flip());
+			}
+		}
+
+		private long getLong(final long position) {
+			final int index = index(position);
+			if (index + Long.BYTES <= buffer.capacity()) {
+				return buffer.getLong(index);
+			}
+			final byte[] bytes = new byte[Long.BYTES];
+			get(position, bytes);
+			return ByteBuffer.wrap(bytes).getLong();
+		}
+
+		private int getInt(final long position) {
+			final int index = index(position);
+			if (index + Integer.BYTES <= buffer.capacity()) {
+				return buffer.getInt(index);
+			}
+			final byte[] bytes = new byte[Integer.BYTES];
+			get(position, bytes);
+			return ByteBuffer.wrap(bytes).getInt();
+		}
+
+		private int index(final long position) {
+			return (int) (position % buffer.capacity());
+		}
+
+		private void put(final long position, final ByteBuffer source) {
+			int index = index(position);
+			while (source.hasRemaining()) {
+				final int chunk = Math.min(source.remaining(), buffer.capacity() - index);
+				buffer.put(index, source, source.position(), chunk);
+				source.position(source.position() + chunk);
+				index = 0;
+			}
+		}
+
+		private void get(final long position, final byte[] destination) {
+			int index = index(position);
+			int copied = 0;
+			while (copied < destination.length) {
+				final int chunk = Math.min(destination.length - copied, buffer.capacity() - index);
+				buffer.get(index, destination, copied, chunk);
+				copied += chunk;
+				index = 0;
+			}
+		}
+	}
+}
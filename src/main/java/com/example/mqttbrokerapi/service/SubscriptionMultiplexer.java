@@ -0,0 +1,609 @@
+package com.example.mqttbrokerapi.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.example.mqttbrokerapi.dto.ConsumerGroupDTO;
+import com.hivemq.client.mqtt.datatypes.MqttSharedTopicFilter;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
+import com.hivemq.client.mqtt.mqtt5.message.unsubscribe.Mqtt5Unsubscribe;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.util.concurrent.Queues;
+
+/**
+ * Keeps one broker subscription per broker name and topic filter and fans every received
+ * {@link Mqtt5Publish} out to the attached streams whose filter matches its topic. A stream whose
+ * filter is covered by an existing broker subscription, e.g. {@code sensors/+/temp} by
+ * {@code sensors/#}, is routed from that subscription instead of sending another SUBSCRIBE. The
+ * broker subscription is opened by the first subscriber and unsubscribed when the last one cancels.
+ * Every stream gets its own bounded buffer, so a slow consumer loses messages according to its
+ * {@link OverflowStrategy} instead of holding up the broker subscription or the other streams. The
+ * streams of a shared subscription ({@code $share/group/filter}) form a consumer group: each of its
+ * messages goes to one of them in turn.
+ */
+@Service
+public class SubscriptionMultiplexer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionMultiplexer.class);
+
+	public enum OverflowStrategy {
+		DROP_OLDEST, DROP_NEWEST, ERROR, CONFLATE;
+
+		/**
+		 * Resolves {@code drop-oldest}, {@code drop-newest}, {@code error} or {@code conflate}, ignoring case.
+		 */
+		public static OverflowStrategy of(final String name) {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+
+		private String tagValue() {
+			return name().toLowerCase(Locale.ROOT).replace('_', '-');
+		}
+	}
+
+	private final ConcurrentMap<SubscriptionKey, SharedSubscription> subscriptions = new ConcurrentHashMap<>();
+
+	private final Set<String> instrumentedBrokers = ConcurrentHashMap.newKeySet();
+
+	private final Function<String, Mqtt5Subscribe> mqtt5SubscribeFactory;
+
+	private final MqttMetrics mqttMetrics;
+
+	private final LastValueCache lastValueCache;
+
+	private final ReplayBuffer replayBuffer;
+
+	private final int bufferSize;
+
+	private final int maxBufferSize;
+
+	private final OverflowStrategy overflowStrategy;
+
+	public SubscriptionMultiplexer(Function<String, Mqtt5Subscribe> mqtt5SubscribeFactory, MqttMetrics mqttMetrics,
+			LastValueCache lastValueCache, ReplayBuffer replayBuffer,
+			@Value("${broker.subscribe.buffer.size:256}") int bufferSize,
+			@Value("${broker.subscribe.buffer.max-size:65536}") int maxBufferSize,
+			@Value("${broker.subscribe.buffer.overflow:drop-oldest}") OverflowStrategy overflowStrategy) {
+		this.mqtt5SubscribeFactory = mqtt5SubscribeFactory;
+		this.mqttMetrics = mqttMetrics;
+		this.lastValueCache = lastValueCache;
+		this.replayBuffer = replayBuffer;
+		this.bufferSize = bufferSize;
+		this.maxBufferSize = maxBufferSize;
+		this.overflowStrategy = overflowStrategy;
+		mqttMetrics.gauge("mqtt.subscribe.upstream", subscriptions::size);
+	}
+
+	public Flux<ReceivedMessage> attach(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final String topicFilter) {
+		return attach(brokerName, mqtt5ReactorClient, topicFilter, null, null, null);
+	}
+
+	/**
+	 * Attaches a stream with a buffer of {@code bufferSize} messages, capped at the configured maximum,
+	 * and the given overflow strategy; {@code null} falls back to the configured defaults. With a
+	 * {@code fromOffset} the stream first replays the recorded messages from that offset on and then
+	 * continues live without gaps or duplicates.
+	 */
+	public Flux<ReceivedMessage> attach(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final String topicFilter, final Integer bufferSize, final OverflowStrategy overflowStrategy,
+			final Long fromOffset) {
+		return attach(brokerName, mqtt5ReactorClient, topicFilter, bufferSize, overflowStrategy, fromOffset, true);
+	}
+
+	/**
+	 * Attaches a stream as above; only a {@code replayable} stream, whose client sees the offsets and can
+	 * resume from one, has the {@link ReplayBuffer} record its topics.
+	 */
+	public Flux<ReceivedMessage> attach(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final String topicFilter, final Integer bufferSize, final OverflowStrategy overflowStrategy,
+			final Long fromOffset, final boolean replayable) {
+		final Mqtt5Subscription subscription = mqtt5SubscribeFactory.apply(topicFilter).getSubscriptions().get(0);
+		instrument(brokerName);
+		return Flux.defer(() -> stream(brokerName, mqtt5ReactorClient, subscription, bufferSize, overflowStrategy,
+				fromOffset, replayable, shared -> connect(shared.mqtt5ReactorClient, List.of(shared))));
+	}
+
+	/**
+	 * Attaches one stream per subscription, each with its own buffer as above, and merges them. The filters
+	 * without a broker subscription yet are subscribed together in a single SUBSCRIBE with their own QoS;
+	 * the others are routed from the existing ones.
+	 */
+	public Flux<ReceivedMessage> attach(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final List<? extends Mqtt5Subscription> subscriptions, final Integer bufferSize,
+			final OverflowStrategy overflowStrategy, final Long fromOffset) {
+		instrument(brokerName);
+		return Flux.defer(() -> {
+			final List<SharedSubscription> attached = new ArrayList<>(subscriptions.size());
+			final AtomicInteger remaining = new AtomicInteger(subscriptions.size());
+			final Consumer<SharedSubscription> connector = shared -> {
+				synchronized (attached) {
+					attached.add(shared);
+				}
+				if (remaining.decrementAndGet() == 0) {
+					connect(mqtt5ReactorClient, attached);
+				}
+			};
+			@SuppressWarnings("unchecked")
+			final Flux<ReceivedMessage>[] streams = subscriptions.stream()
+					.map(subscription -> stream(brokerName, mqtt5ReactorClient, subscription, bufferSize,
+							overflowStrategy, fromOffset, true, connector))
+					.toArray(Flux[]::new);
+			// subscribes to all streams right away, so that the last one to attach connects them
+			return Flux.merge(Queues.XS_BUFFER_SIZE, streams);
+		});
+	}
+
+	private Flux<ReceivedMessage> stream(final String brokerName, final Mqtt5ReactorClient mqtt5ReactorClient,
+			final Mqtt5Subscription subscription, final Integer bufferSize, final OverflowStrategy overflowStrategy,
+			final Long fromOffset, final boolean replayable, final Consumer<SharedSubscription> connector) {
+		final String topicFilter = subscription.getTopicFilter().toString();
+		final int capacity = Math.max(1, Math.min(maxBufferSize, bufferSize != null ? bufferSize : this.bufferSize));
+		final OverflowStrategy strategy = overflowStrategy != null ? overflowStrategy : this.overflowStrategy;
+		final StreamSubscriber streamSubscriber = new StreamSubscriber(topicFilter, capacity, strategy,
+				mqttMetrics.droppedDeliveries(brokerName, strategy.tagValue()), fromOffset != null);
+		// a consumer group cannot resume, so its members are never recorded for replay
+		final boolean recorded = (replayable || fromOffset != null) && !subscription.getTopicFilter().isShared();
+		return Flux.<ReceivedMessage>create(sink -> {
+			streamSubscriber.sink = sink;
+			sink.onRequest(requested -> streamSubscriber.drain());
+			if (recorded) {
+				replayBuffer.retain(brokerName, topicFilter);
+			}
+			SharedSubscription sharedSubscription = null;
+			while (sharedSubscription == null) {
+				final SubscriptionKey key = upstreamKey(brokerName, topicFilter);
+				sharedSubscription = subscriptions.compute(key, (subscriptionKey, existing) -> {
+					// the covering subscription was released in the meantime, look again
+					if (existing == null && !subscriptionKey.topicFilter().equals(topicFilter)) {
+						return null;
+					}
+					final SharedSubscription shared = existing != null ? existing
+							: new SharedSubscription(subscriptionKey, mqtt5ReactorClient, subscription);
+					shared.attach(streamSubscriber);
+					return shared;
+				});
+			}
+			final SharedSubscription attached = sharedSubscription;
+			sink.onDispose(() -> {
+				detach(attached.key, attached, streamSubscriber);
+				if (recorded) {
+					replayBuffer.release(brokerName, topicFilter);
+				}
+			});
+			if (fromOffset != null) {
+				streamSubscriber.replay(replayBuffer.history(brokerName, topicFilter, fromOffset));
+			}
+			connector.accept(attached);
+		});
+	}
+
+	/**
+	 * Subscribes the shared subscriptions that are not connected yet with one SUBSCRIBE.
+	 */
+	private void connect(final Mqtt5ReactorClient mqtt5ReactorClient, final List<SharedSubscription> shared) {
+		final Upstream upstream = new Upstream(mqtt5ReactorClient);
+		shared.forEach(sharedSubscription -> sharedSubscription.claim(upstream));
+		upstream.start();
+	}
+
+	public int subscriberCount(final String brokerName, final String topicFilter) {
+		final SharedSubscription shared = subscriptions.get(new SubscriptionKey(brokerName, topicFilter));
+		return shared == null ? 0 : shared.subscribers.size();
+	}
+
+	public int upstreamSubscriptionCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * The shared subscriptions of the broker with the number of streams that are members of each.
+	 */
+	public List<ConsumerGroupDTO> consumerGroups(final String brokerName) {
+		return subscriptions.values().stream()
+				.filter(shared -> shared.key.brokerName().equals(brokerName) && shared.group != null)
+				.map(shared -> ConsumerGroupDTO.builder()
+						.group(shared.group)
+						.topicFilter(shared.matchFilter)
+						.members(shared.subscribers.size())
+						.build())
+				.toList();
+	}
+
+	/**
+	 * The key of the broker subscription that serves the topic filter: its own one if it exists,
+	 * otherwise any subscription of the broker with a filter covering it.
+	 */
+	private SubscriptionKey upstreamKey(final String brokerName, final String topicFilter) {
+		final SubscriptionKey key = new SubscriptionKey(brokerName, topicFilter);
+		if (subscriptions.containsKey(key)) {
+			return key;
+		}
+		return subscriptions.keySet().stream()
+				.filter(existing -> existing.brokerName().equals(brokerName)
+						&& TopicTrie.covers(existing.topicFilter(), topicFilter))
+				.findFirst()
+				.orElse(key);
+	}
+
+	private void instrument(final String brokerName) {
+		if (instrumentedBrokers.add(brokerName)) {
+			mqttMetrics.gauge("mqtt.subscribe.active", brokerName,
+					() -> streams(brokerName).count());
+			mqttMetrics.gauge("mqtt.subscribe.buffered", brokerName,
+					() -> streams(brokerName).mapToLong(StreamSubscriber::buffered).sum());
+			mqttMetrics.gauge("mqtt.subscribe.buffered.max", brokerName,
+					() -> streams(brokerName).mapToLong(StreamSubscriber::buffered).max().orElse(0));
+		}
+	}
+
+	private Stream<StreamSubscriber> streams(final String brokerName) {
+		return subscriptions.values().stream()
+				.filter(shared -> shared.key.brokerName().equals(brokerName))
+				.flatMap(shared -> shared.subscribers.stream());
+	}
+
+	private void detach(final SubscriptionKey key, final SharedSubscription sharedSubscription,
+			final StreamSubscriber streamSubscriber) {
+		subscriptions.computeIfPresent(key, (subscriptionKey, existing) -> {
+			if (existing != sharedSubscription) {
+				return existing;
+			}
+			return existing.detach(streamSubscriber) ? null : existing;
+		});
+	}
+
+	private static final class StreamSubscriber {
+		private final String topicFilter;
+
+		private final int capacity;
+
+		private final OverflowStrategy overflowStrategy;
+
+		private final Counter dropped;
+
+		private final Queue<ReceivedMessage> buffer = new ArrayDeque<>();
+
+		private final Map<MqttTopic, ReceivedMessage> latest = new LinkedHashMap<>();
+
+		private final Queue<ReceivedMessage> replayed = new ArrayDeque<>();
+
+		private final AtomicInteger wip = new AtomicInteger();
+
+		private FluxSink<ReceivedMessage> sink;
+
+		private volatile int buffered;
+
+		private boolean done;
+
+		private Throwable error;
+
+		private boolean signalled;
+
+		private long liveFrom = Long.MIN_VALUE;
+
+		// holds back the live messages routed to the stream until its history is in place
+		private boolean replayPending;
+
+		private StreamSubscriber(final String topicFilter, final int capacity, final OverflowStrategy overflowStrategy,
+				final Counter dropped, final boolean replayPending) {
+			this.topicFilter = topicFilter;
+			this.capacity = capacity;
+			this.overflowStrategy = overflowStrategy;
+			this.dropped = dropped;
+			this.replayPending = replayPending;
+		}
+
+		private void next(final ReceivedMessage receivedMessage) {
+			synchronized (this) {
+				if (done || receivedMessage.offset() < liveFrom) {
+					return;
+				}
+				if (overflowStrategy == OverflowStrategy.CONFLATE) {
+					conflate(receivedMessage);
+				} else if (buffer.size() < capacity) {
+					buffer.offer(receivedMessage);
+				} else if (overflowStrategy == OverflowStrategy.DROP_OLDEST) {
+					buffer.poll();
+					buffer.offer(receivedMessage);
+					dropped.increment();
+				} else if (overflowStrategy == OverflowStrategy.DROP_NEWEST) {
+					dropped.increment();
+				} else {
+					dropped.increment();
+					buffer.clear();
+					replayed.clear();
+					done = true;
+					error = Exceptions.failWithOverflow("Subscriber buffer of " + capacity + " messages is full");
+				}
+				buffered = buffer.size() + latest.size() + replayed.size();
+			}
+			drain();
+		}
+
+		/**
+		 * Delivers the history before any live message and skips the live messages it already contains.
+		 * Must be called after the stream is routed, so that no message falls between history and live;
+		 * the live messages routed until then are held back.
+		 */
+		private void replay(final ReplayBuffer.History history) {
+			synchronized (this) {
+				replayPending = false;
+				liveFrom = history.head();
+				replayed.addAll(history.messages());
+				buffer.removeIf(receivedMessage -> receivedMessage.offset() < liveFrom);
+				latest.values().removeIf(receivedMessage -> receivedMessage.offset() < liveFrom);
+				buffered = buffer.size() + latest.size() + replayed.size();
+			}
+			drain();
+		}
+
+		// keeps only the latest message per topic, and drops the oldest topic when there are too many
+		private void conflate(final ReceivedMessage receivedMessage) {
+			if (latest.put(receivedMessage.mqtt5Publish().getTopic(), receivedMessage) != null) {
+				dropped.increment();
+			} else if (latest.size() > capacity) {
+				final Iterator<ReceivedMessage> oldest = latest.values().iterator();
+				oldest.next();
+				oldest.remove();
+				dropped.increment();
+			}
+		}
+
+		private synchronized void terminate(final Throwable throwable) {
+			if (!done) {
+				done = true;
+				error = throwable;
+			}
+		}
+
+		private synchronized ReceivedMessage poll() {
+			if (replayPending) {
+				return null;
+			}
+			ReceivedMessage receivedMessage = replayed.poll();
+			if (receivedMessage == null) {
+				receivedMessage = buffer.poll();
+			}
+			if (receivedMessage == null && !latest.isEmpty()) {
+				final Iterator<ReceivedMessage> oldest = latest.values().iterator();
+				receivedMessage = oldest.next();
+				oldest.remove();
+			}
+			buffered = buffer.size() + latest.size() + replayed.size();
+			return receivedMessage;
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			do {
+				while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+					final ReceivedMessage receivedMessage = poll();
+					if (receivedMessage == null) {
+						break;
+					}
+					sink.next(receivedMessage);
+				}
+				final boolean terminated;
+				final Throwable throwable;
+				synchronized (this) {
+					terminated = done && buffered == 0 && !replayPending;
+					throwable = error;
+				}
+				if (terminated && !signalled) {
+					signalled = true;
+					if (throwable != null) {
+						sink.error(throwable);
+					} else {
+						sink.complete();
+					}
+				}
+			} while (wip.decrementAndGet() != 0);
+		}
+
+		private long buffered() {
+			return buffered;
+		}
+	}
+
+	private record SubscriptionKey(String brokerName, String topicFilter) {
+	}
+
+	private final class SharedSubscription {
+		private final SubscriptionKey key;
+
+		private final Mqtt5ReactorClient mqtt5ReactorClient;
+
+		private final List<StreamSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+		private final TopicTrie<StreamSubscriber> routes = new TopicTrie<>();
+
+		private final Mqtt5Subscription subscription;
+
+		// the share name and the filter of a shared subscription, or null and the key's filter
+		private final String group;
+
+		private final String matchFilter;
+
+		private Upstream upstream;
+
+		private int nextMember;
+
+		private volatile boolean terminated;
+
+		private boolean released;
+
+		private SharedSubscription(final SubscriptionKey key, final Mqtt5ReactorClient mqtt5ReactorClient,
+				final Mqtt5Subscription subscription) {
+			this.key = key;
+			this.mqtt5ReactorClient = mqtt5ReactorClient;
+			this.subscription = subscription;
+			if (subscription.getTopicFilter() instanceof MqttSharedTopicFilter sharedTopicFilter) {
+				this.group = sharedTopicFilter.getShareName();
+				this.matchFilter = sharedTopicFilter.getTopicFilter().toString();
+			} else {
+				this.group = null;
+				this.matchFilter = key.topicFilter();
+			}
+		}
+
+		private void attach(final StreamSubscriber streamSubscriber) {
+			subscribers.add(streamSubscriber);
+			routes.add(streamSubscriber.topicFilter, streamSubscriber);
+		}
+
+		private synchronized void claim(final Upstream upstream) {
+			if (this.upstream == null && !released) {
+				this.upstream = upstream;
+				upstream.members.add(this);
+			}
+		}
+
+		private synchronized boolean detach(final StreamSubscriber streamSubscriber) {
+			subscribers.remove(streamSubscriber);
+			routes.remove(streamSubscriber.topicFilter, streamSubscriber);
+			if (!subscribers.isEmpty()) {
+				return false;
+			}
+			released = true;
+			if (upstream == null) {
+				return true;
+			}
+			upstream.release(this);
+			if (!terminated) {
+				LOGGER.debug("Unsubscribing from {} on broker {}", key.topicFilter(), key.brokerName());
+				Mono.defer(() -> mqtt5ReactorClient.unsubscribe(Mqtt5Unsubscribe.builder()
+								.topicFilter(key.topicFilter())
+								.build()))
+						.doOnError(throwable -> LOGGER.warn("Unsubscribing from {} failed", key.topicFilter(), throwable))
+						.onErrorResume(throwable -> Mono.empty())
+						.subscribe();
+			}
+			return true;
+		}
+
+		private void dispatch(final Mqtt5Publish mqtt5Publish) {
+			lastValueCache.put(key.brokerName(), mqtt5Publish);
+			final long receivedAt = System.currentTimeMillis();
+			final ReceivedMessage receivedMessage = new ReceivedMessage(
+					replayBuffer.record(key.brokerName(), mqtt5Publish, receivedAt), receivedAt, mqtt5Publish);
+			if (group == null) {
+				routes.forEachMatch(mqtt5Publish.getTopic().toString(),
+						streamSubscriber -> streamSubscriber.next(receivedMessage));
+				return;
+			}
+			// called by one publish flow at a time
+			final Object[] members = subscribers.toArray();
+			if (members.length > 0) {
+				((StreamSubscriber) members[Math.floorMod(nextMember++, members.length)]).next(receivedMessage);
+			}
+		}
+
+		private void fail(final Throwable throwable) {
+			terminated = true;
+			subscriptions.remove(key, this);
+			subscribers.forEach(streamSubscriber -> {
+				streamSubscriber.terminate(throwable);
+				streamSubscriber.drain();
+			});
+		}
+
+		private void complete() {
+			terminated = true;
+			subscriptions.remove(key, this);
+			subscribers.forEach(streamSubscriber -> {
+				streamSubscriber.terminate(null);
+				streamSubscriber.drain();
+			});
+		}
+	}
+
+	/**
+	 * One broker subscription flow serving the shared subscriptions that were subscribed together.
+	 */
+	private final class Upstream {
+		private final Mqtt5ReactorClient mqtt5ReactorClient;
+
+		private final List<SharedSubscription> members = new CopyOnWriteArrayList<>();
+
+		private Disposable flow;
+
+		private Upstream(final Mqtt5ReactorClient mqtt5ReactorClient) {
+			this.mqtt5ReactorClient = mqtt5ReactorClient;
+		}
+
+		private void start() {
+			final Mqtt5Subscribe mqtt5Subscribe;
+			synchronized (this) {
+				if (members.isEmpty()) {
+					return;
+				}
+				members.forEach(member -> LOGGER.debug("Subscribing to {} on broker {}", member.key.topicFilter(),
+						member.key.brokerName()));
+				mqtt5Subscribe = Mqtt5Subscribe.builder()
+						.addSubscriptions(members.stream().map(member -> member.subscription))
+						.build();
+			}
+			final Disposable disposable = mqtt5ReactorClient.subscribePublishes(mqtt5Subscribe)
+					.subscribe(this::dispatch, this::fail, this::complete);
+			synchronized (this) {
+				flow = disposable;
+				if (members.isEmpty()) {
+					disposable.dispose();
+				}
+			}
+		}
+
+		private synchronized void release(final SharedSubscription member) {
+			members.remove(member);
+			if (members.isEmpty() && flow != null) {
+				flow.dispose();
+			}
+		}
+
+		private void dispatch(final Mqtt5Publish mqtt5Publish) {
+			final String topic = mqtt5Publish.getTopic().toString();
+			members.forEach(member -> {
+				if (members.size() == 1 || TopicTrie.covers(member.matchFilter, topic)) {
+					member.dispatch(mqtt5Publish);
+				}
+			});
+		}
+
+		private void fail(final Throwable throwable) {
+			members.forEach(member -> member.fail(throwable));
+		}
+
+		private void complete() {
+			members.forEach(SharedSubscription::complete);
+		}
+	}
+}
@@ -2,35 +2,102 @@ package com.example.mqttbrokerapi.service;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.function.Function;
+import java.util.List;
 
-import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
-import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
+import com.example.mqttbrokerapi.dto.ConsumerGroupDTO;
+import com.example.mqttbrokerapi.dto.DeliveryLatencyDTO;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer.OverflowStrategy;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.Counter;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.concurrent.Queues;
 
 @Service
 public class SubscriptionWorkFlow {
-	private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionWorkFlow.class);
-	Function<String, Mqtt5Subscribe> mqtt5SubscribeFactory;
+	private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+	SubscriptionMultiplexer subscriptionMultiplexer;
+	MessageTracer messageTracer;
+	MqttMetrics mqttMetrics;
+	Scheduler mqttScheduler;
+	DeliveryLatency deliveryLatency;
 
-	public SubscriptionWorkFlow(Function<String, Mqtt5Subscribe> mqtt5SubscribeFactory) {
-		this.mqtt5SubscribeFactory = mqtt5SubscribeFactory;
+	public SubscriptionWorkFlow(SubscriptionMultiplexer subscriptionMultiplexer, MessageTracer messageTracer,
+			MqttMetrics mqttMetrics, Scheduler mqttScheduler, DeliveryLatency deliveryLatency) {
+		this.subscriptionMultiplexer = subscriptionMultiplexer;
+		this.messageTracer = messageTracer;
+		this.mqttMetrics = mqttMetrics;
+		this.mqttScheduler = mqttScheduler;
+		this.deliveryLatency = deliveryLatency;
 	}
 
-	public Flux<String> subscriptionWorkFlow(Mqtt5ReactorClient mqtt5ReactorClient, String topic) {
-		return mqtt5ReactorClient.subscribePublishes(mqtt5SubscribeFactory.apply(topic))
-				.doOnNext(this::logMediator)
-				.map( mqtt5Publish -> String.format("%s",
-						new String(mqtt5Publish.getPayloadAsBytes())))
-				.publishOn(Schedulers.parallel());
+	public Flux<String> subscriptionWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient, String topic) {
+		return subscriptionWorkFlow(brokerName, mqtt5ReactorClient, topic, null, null, null);
 	}
-	private void logMediator(Mqtt5Publish mqtt5Publish) {
-		LOGGER.info("Message received from topic {}: {} ", mqtt5Publish.getTopic(),
-				StandardCharsets.UTF_8.decode(ByteBuffer.wrap(mqtt5Publish.getPayloadAsBytes())));
+
+	public Flux<String> subscriptionWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient, String topic,
+			Integer bufferSize, OverflowStrategy overflowStrategy, Long fromOffset) {
+		return binarySubscriptionWorkFlow(brokerName, mqtt5ReactorClient, topic, bufferSize, overflowStrategy, fromOffset)
+				.map(payload -> StandardCharsets.UTF_8.decode(payload).toString());
+	}
+
+	public Flux<ByteBuffer> binarySubscriptionWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient,
+			String topic) {
+		return binarySubscriptionWorkFlow(brokerName, mqtt5ReactorClient, topic, null, null, null);
+	}
+
+	public Flux<ByteBuffer> binarySubscriptionWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient,
+			String topic, Integer bufferSize, OverflowStrategy overflowStrategy, Long fromOffset) {
+		// the payloads go out without their offsets, so the stream cannot be resumed later
+		return received(brokerName, subscriptionMultiplexer.attach(brokerName, mqtt5ReactorClient, topic, bufferSize,
+						overflowStrategy, fromOffset, false))
+				.map(receivedMessage -> receivedMessage.mqtt5Publish().getPayload().orElse(EMPTY_PAYLOAD));
+	}
+
+	/**
+	 * Streams the messages of the topic with their offsets through a per-subscriber buffer of
+	 * {@code bufferSize} messages, replaying the recorded ones from {@code fromOffset} first if given;
+	 * {@code null} uses the configured buffer size and overflow strategy.
+	 */
+	public Flux<ReceivedMessage> messageWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient,
+			String topic, Integer bufferSize, OverflowStrategy overflowStrategy, Long fromOffset) {
+		return received(brokerName, subscriptionMultiplexer.attach(brokerName, mqtt5ReactorClient, topic, bufferSize,
+				overflowStrategy, fromOffset));
+	}
+
+	/**
+	 * Streams the messages of several topic filters, each at its own QoS, merged into one stream; the
+	 * filters are subscribed with a single SUBSCRIBE.
+	 */
+	public Flux<ReceivedMessage> messageWorkFlow(String brokerName, Mqtt5ReactorClient mqtt5ReactorClient,
+			List<? extends Mqtt5Subscription> subscriptions, Integer bufferSize, OverflowStrategy overflowStrategy,
+			Long fromOffset) {
+		return received(brokerName, subscriptionMultiplexer.attach(brokerName, mqtt5ReactorClient, subscriptions,
+				bufferSize, overflowStrategy, fromOffset));
+	}
+
+	public List<ConsumerGroupDTO> consumerGroups(String brokerName) {
+		return subscriptionMultiplexer.consumerGroups(brokerName);
+	}
+
+	/**
+	 * Delivery latency histograms per topic of the broker, from the stamped messages its streams received.
+	 */
+	public List<DeliveryLatencyDTO> deliveryLatencies(String brokerName) {
+		return deliveryLatency.latencies(brokerName);
+	}
+
+	private Flux<ReceivedMessage> received(String brokerName, Flux<ReceivedMessage> messages) {
+		final Counter receivedMessages = mqttMetrics.receivedMessages(brokerName);
+		return messages
+				.doOnNext(receivedMessage -> {
+					receivedMessages.increment();
+					messageTracer.traceReceived(brokerName, receivedMessage.mqtt5Publish());
+					deliveryLatency.record(brokerName, receivedMessage.mqtt5Publish());
+				})
+				// a small prefetch keeps the buffering, and the overflow decision, in the subscriber buffer
+				.publishOn(mqttScheduler, Queues.XS_BUFFER_SIZE);
 	}
 }
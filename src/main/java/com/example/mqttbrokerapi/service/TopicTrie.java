@@ -0,0 +1,128 @@
+package com.example.mqttbrokerapi.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+/**
+ * Trie of MQTT topic filters, one level per node, that finds the values of all filters matching a
+ * topic with the {@code +} and {@code #} wildcard semantics of the MQTT specification. Matching walks
+ * the levels of the topic once, so its cost does not grow with the number of filters. Lookups are
+ * lock-free; changes are serialized.
+ */
+public final class TopicTrie<T> {
+	private static final String SINGLE_LEVEL = "+";
+
+	private static final String MULTI_LEVEL = "#";
+
+	private static final String SHARED_PREFIX = "$share/";
+
+	private final Node<T> root = new Node<>();
+
+	public synchronized void add(final String topicFilter, final T value) {
+		Node<T> node = root;
+		for (String level : topicFilter.split("/", -1)) {
+			node = node.children.computeIfAbsent(level, key -> new Node<>());
+		}
+		node.values.add(value);
+	}
+
+	public synchronized boolean remove(final String topicFilter, final T value) {
+		return remove(root, topicFilter.split("/", -1), 0, value);
+	}
+
+	public boolean isEmpty() {
+		return root.children.isEmpty();
+	}
+
+	/**
+	 * Passes the values of every filter matching the topic to the consumer. Wildcards on the first
+	 * level do not match topics starting with {@code $}.
+	 */
+	public void forEachMatch(final String topic, final Consumer<? super T> consumer) {
+		match(root, topic, 0, !topic.startsWith("$"), consumer);
+	}
+
+	/**
+	 * Whether every topic matched by {@code other} is also matched by {@code topicFilter}, so that a
+	 * subscription to {@code topicFilter} receives everything a subscription to {@code other} would.
+	 * Shared subscriptions ({@code $share/group/filter}) never cover and are never covered, since the
+	 * broker hands each of their messages to one member of the group only.
+	 */
+	public static boolean covers(final String topicFilter, final String other) {
+		if (topicFilter.startsWith(SHARED_PREFIX) || other.startsWith(SHARED_PREFIX)) {
+			return false;
+		}
+		final String[] levels = topicFilter.split("/", -1);
+		final String[] otherLevels = other.split("/", -1);
+		if (otherLevels[0].startsWith("$") && isWildcard(levels[0])) {
+			return false;
+		}
+		for (int i = 0; i < levels.length; i++) {
+			if (levels[i].equals(MULTI_LEVEL)) {
+				return true;
+			}
+			if (i >= otherLevels.length || otherLevels[i].equals(MULTI_LEVEL)) {
+				return false;
+			}
+			if (!levels[i].equals(SINGLE_LEVEL) && !levels[i].equals(otherLevels[i])) {
+				return false;
+			}
+		}
+		return levels.length == otherLevels.length;
+	}
+
+	private static boolean isWildcard(final String level) {
+		return level.equals(SINGLE_LEVEL) || level.equals(MULTI_LEVEL);
+	}
+
+	// start is the index of the next topic level, or -1 once all levels are consumed
+	private static <T> void match(final Node<T> node, final String topic, final int start, final boolean wildcards,
+			final Consumer<? super T> consumer) {
+		if (wildcards) {
+			final Node<T> multiLevel = node.children.get(MULTI_LEVEL);
+			if (multiLevel != null) {
+				multiLevel.values.forEach(consumer);
+			}
+		}
+		if (start < 0) {
+			node.values.forEach(consumer);
+			return;
+		}
+		final int end = topic.indexOf('/', start);
+		final String level = end < 0 ? topic.substring(start) : topic.substring(start, end);
+		final int next = end < 0 ? -1 : end + 1;
+		final Node<T> child = node.children.get(level);
+		if (child != null) {
+			match(child, topic, next, true, consumer);
+		}
+		if (wildcards) {
+			final Node<T> singleLevel = node.children.get(SINGLE_LEVEL);
+			if (singleLevel != null) {
+				match(singleLevel, topic, next, true, consumer);
+			}
+		}
+	}
+
+	private static <T> boolean remove(final Node<T> node, final String[] levels, final int index, final T value) {
+		if (index == levels.length) {
+			return node.values.remove(value);
+		}
+		final Node<T> child = node.children.get(levels[index]);
+		if (child == null || !remove(child, levels, index + 1, value)) {
+			return false;
+		}
+		if (child.values.isEmpty() && child.children.isEmpty()) {
+			node.children.remove(levels[index], child);
+		}
+		return true;
+	}
+
+	private static final class Node<T> {
+		private final ConcurrentMap<String, Node<T>> children = new ConcurrentHashMap<>();
+
+		private final Set<T> values = new CopyOnWriteArraySet<>();
+	}
+}
@@ -8,11 +8,23 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 
+import com.example.mqttbrokerapi.config.MqttExecutorConfig;
 import com.example.mqttbrokerapi.controller.v1.MqttOperationController;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.service.AdmissionControl;
+import com.example.mqttbrokerapi.service.BrokerCircuitBreaker;
 import com.example.mqttbrokerapi.service.ClientConnectWorkFlow;
+import com.example.mqttbrokerapi.service.DeliveryLatency;
+import com.example.mqttbrokerapi.service.LastValueCache;
+import com.example.mqttbrokerapi.service.MessageTracer;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.example.mqttbrokerapi.service.PublishSpool;
 import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.example.mqttbrokerapi.service.ReplayBuffer;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer;
 import com.example.mqttbrokerapi.service.SubscriptionWorkFlow;
 import com.hivemq.client.mqtt.MqttClient;
 import com.hivemq.client.mqtt.MqttGlobalPublishFilter;
@@ -21,6 +33,7 @@ import com.hivemq.client.mqtt.mqtt5.Mqtt5BlockingClient;
 import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
 import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -45,7 +58,9 @@ import reactor.test.StepVerifier;
 @ExtendWith(SpringExtension.class)
 @WebFluxTest(MqttOperationController.class)
 @ContextConfiguration(classes = {PublisherWorkFlow.class,SubscriptionWorkFlow.class, MqttOperationController.class,
-		BrokerConfigRepository.class, ClientConnectWorkFlow.class})
+		BrokerConfigRepository.class, ClientConnectWorkFlow.class, MqttClientRegistry.class, BrokerCircuitBreaker.class, AdmissionControl.class,
+		SubscriptionMultiplexer.class, MessageTracer.class, DeliveryLatency.class, MqttMetrics.class, SimpleMeterRegistry.class,
+		PublishQueue.class, PublishSpool.class, LastValueCache.class, ReplayBuffer.class, MqttExecutorConfig.class})
 public class MqttOperationControllerIntegration {
 
 	@Autowired
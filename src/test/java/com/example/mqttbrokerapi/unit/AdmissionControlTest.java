@@ -0,0 +1,76 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.example.mqttbrokerapi.exception.AdmissionRejectedException;
+import com.example.mqttbrokerapi.service.AdmissionControl;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+public class AdmissionControlTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(meterRegistry);
+
+	@Test
+	public void shouldAdmitTheBurst_AndThenRejectWithRetryAfter() {
+		final AdmissionControl admissionControl = new AdmissionControl(mqttMetrics, List.of("*::1:3:0"));
+
+		IntStream.range(0, 3).forEach(i ->
+				StepVerifier.create(admissionControl.admitPublish(BROKER_NAME, "topic1")).verifyComplete());
+		StepVerifier.create(admissionControl.admitPublish(BROKER_NAME, "topic1"))
+				.expectErrorSatisfies(throwable -> {
+					assertTrue(throwable instanceof AdmissionRejectedException);
+					assertEquals("1", ((AdmissionRejectedException) throwable).getHeaders().getFirst("Retry-After"));
+				})
+				.verify();
+		// every broker has its own bucket
+		assertTrue(admissionControl.tryAdmitPublish("broker2", "topic1"));
+		assertEquals(1, meterRegistry.get("mqtt.admission.rejected").tag("broker", BROKER_NAME)
+				.tag("limit", AdmissionControl.PUBLISH_RATE).counter().count(), 0);
+	}
+
+	@Test
+	public void shouldLimitOnlyTopicsUnderThePrefix_AndTakeNoTokenWhenAnotherLimitRejects() {
+		final AdmissionControl admissionControl = new AdmissionControl(mqttMetrics,
+				List.of("broker1:sensors/:1:1:0", "broker1::1:2:0"));
+
+		assertTrue(admissionControl.tryAdmitPublish(BROKER_NAME, "sensors/kitchen"));
+		assertFalse(admissionControl.tryAdmitPublish(BROKER_NAME, "sensors/hall"));
+		// the broker-wide bucket got its token back from the rejected publish
+		assertTrue(admissionControl.tryAdmitPublish(BROKER_NAME, "alerts"));
+		assertFalse(admissionControl.tryAdmitPublish(BROKER_NAME, "alerts"));
+		assertTrue(admissionControl.tryAdmitPublish("broker2", "sensors/kitchen"));
+	}
+
+	@Test
+	public void shouldCapConcurrentStreams_AndFreeTheSlotOnCancel() {
+		final AdmissionControl admissionControl = new AdmissionControl(mqttMetrics, List.of("broker1:sensors/:0:0:1"));
+
+		final Disposable first = admissionControl.admitStream(BROKER_NAME, List.of("sensors/#"), Flux.never()).subscribe();
+		StepVerifier.create(admissionControl.admitStream(BROKER_NAME, List.of("alerts", "sensors/+/temp"), Flux.never()))
+				.expectError(AdmissionRejectedException.class)
+				.verify();
+		StepVerifier.create(admissionControl.admitStream(BROKER_NAME, List.of("alerts"), Flux.just("message")))
+				.expectNext("message")
+				.verifyComplete();
+
+		first.dispose();
+		StepVerifier.create(admissionControl.admitStream(BROKER_NAME, List.of("sensors/#"), Flux.just("message")))
+				.expectNext("message")
+				.verifyComplete();
+		assertEquals(1, meterRegistry.get("mqtt.admission.rejected").tag("broker", BROKER_NAME)
+				.tag("limit", AdmissionControl.STREAMS).counter().count(), 0);
+	}
+}
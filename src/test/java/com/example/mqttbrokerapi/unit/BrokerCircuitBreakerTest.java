@@ -0,0 +1,84 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.mqttbrokerapi.exception.BrokerUnavailableException;
+import com.example.mqttbrokerapi.service.BrokerCircuitBreaker;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class BrokerCircuitBreakerTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(meterRegistry);
+
+	@Test
+	public void shouldFailFastWithoutConnecting_OnceTheFailuresOpenTheCircuit() {
+		final BrokerCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMinutes(1), Duration.ofSeconds(10));
+		final AtomicInteger attempts = new AtomicInteger();
+		final Mono<String> connection = Mono.fromCallable(() -> "client" + attempts.incrementAndGet());
+
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, connection)).expectNext("client1").verifyComplete();
+		circuitBreaker.recordFailure(BROKER_NAME);
+		circuitBreaker.recordFailure(BROKER_NAME);
+
+		assertEquals(BrokerCircuitBreaker.State.OPEN, circuitBreaker.state(BROKER_NAME));
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, connection))
+				.expectErrorSatisfies(throwable -> {
+					assertTrue(throwable instanceof BrokerUnavailableException);
+					assertTrue(((BrokerUnavailableException) throwable).getRetryAfter().getSeconds() >= 40);
+				})
+				.verify();
+		assertEquals(1, attempts.get());
+		assertEquals(1, meterRegistry.get("mqtt.circuit.rejected").tag("broker", BROKER_NAME).counter().count(), 0);
+	}
+
+	@Test
+	public void shouldLetOneProbeThroughWhenHalfOpen_AndCloseOnSuccess() {
+		// no backoff, so the open circuit is half-open right away
+		final BrokerCircuitBreaker circuitBreaker = circuitBreaker(Duration.ZERO, Duration.ofSeconds(10));
+		circuitBreaker.recordFailure(BROKER_NAME);
+		circuitBreaker.recordFailure(BROKER_NAME);
+
+		final Disposable probe = circuitBreaker.protect(BROKER_NAME, Mono.never()).subscribe();
+		assertEquals(BrokerCircuitBreaker.State.HALF_OPEN, circuitBreaker.state(BROKER_NAME));
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, Mono.just("client")))
+				.expectError(BrokerUnavailableException.class)
+				.verify();
+
+		circuitBreaker.recordSuccess(BROKER_NAME);
+		probe.dispose();
+		assertEquals(BrokerCircuitBreaker.State.CLOSED, circuitBreaker.state(BROKER_NAME));
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, Mono.just("client")))
+				.expectNext("client")
+				.verifyComplete();
+	}
+
+	@Test
+	public void shouldCountAConnectionThatTakesTooLongAsFailure() {
+		final BrokerCircuitBreaker circuitBreaker = circuitBreaker(Duration.ofMinutes(1), Duration.ofMillis(50));
+
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, Mono.never()))
+				.expectError(BrokerUnavailableException.class)
+				.verify(Duration.ofSeconds(5));
+		StepVerifier.create(circuitBreaker.protect(BROKER_NAME, Mono.never()))
+				.expectError(BrokerUnavailableException.class)
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(BrokerCircuitBreaker.State.OPEN, circuitBreaker.state(BROKER_NAME));
+	}
+
+	private BrokerCircuitBreaker circuitBreaker(final Duration backoff, final Duration connectTimeout) {
+		return new BrokerCircuitBreaker(mqttMetrics, 2, backoff, backoff, 2, 0.2, connectTimeout);
+	}
+}
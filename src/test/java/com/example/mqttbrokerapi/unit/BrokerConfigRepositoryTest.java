@@ -2,12 +2,16 @@ package com.example.mqttbrokerapi.unit;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.List;
+
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
 import com.example.mqttbrokerapi.domain.persistance.impl.BrokerConfigRepositoryImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @ExtendWith(MockitoExtension.class)
@@ -53,10 +57,33 @@ public class BrokerConfigRepositoryTest {
 	public void shouldReturnEmptyOnDeletion_WhenBrokerConfigNotExists() {
 		assertEquals(brokerConfigRepository.deleteBrokerConfiguration("Broker2"), Mono.empty());
 	}
+	@Test
+	public void shouldPageThroughBrokersInNameOrder_AndByHost() {
+		brokerConfigRepository.persistBrokerConfigurations(Flux.just(
+				new NamedBrokerConfiguration("Broker3", brokerConfiguration),
+				new NamedBrokerConfiguration("Broker1", brokerConfiguration),
+				new NamedBrokerConfiguration("Broker2", BrokerConfiguration.builder().hostName("other").port(1883).build()),
+				new NamedBrokerConfiguration("", brokerConfiguration))).block();
+
+		assertEquals(List.of("Broker1", "Broker2"), names(brokerConfigRepository.listBrokerConfigurations(null, null, null, 2)));
+		assertEquals(List.of("Broker3"), names(brokerConfigRepository.listBrokerConfigurations(null, null, "Broker2", 2)));
+		assertEquals(List.of("Broker1", "Broker3"), names(brokerConfigRepository.listBrokerConfigurations(HOST_NAME, SSL_PORT, null, 10)));
+		assertEquals(List.of(), names(brokerConfigRepository.listBrokerConfigurations(HOST_NAME, 1883, null, 10)));
+
+		brokerConfigRepository.persistBrokerConfiguration("Broker1", BrokerConfiguration.builder().hostName("other").port(1883).build());
+		assertEquals(1L, (long) brokerConfigRepository.deleteBrokerConfigurations(Flux.just("Broker2", "Broker4")).block());
+		assertEquals(List.of("Broker3"), names(brokerConfigRepository.listBrokerConfigurations(HOST_NAME, null, null, 10)));
+		assertEquals(List.of("Broker1"), names(brokerConfigRepository.listBrokerConfigurations("other", 1883, null, 10)));
+	}
+
 	@Test
 	public void shouldRturnEmpty_WhenBrokerConfigNameIsEmptyorNull() {
 		assertEquals(brokerConfigRepository.persistBrokerConfiguration("", brokerConfiguration), Mono.empty());
 
 		assertEquals(brokerConfigRepository.persistBrokerConfiguration(null, brokerConfiguration), Mono.empty());
 	}
+
+	private static List<String> names(final Flux<NamedBrokerConfiguration> brokerConfigurations) {
+		return brokerConfigurations.map(NamedBrokerConfiguration::getBrokerName).collectList().block();
+	}
 }
@@ -0,0 +1,75 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.example.mqttbrokerapi.dto.DeliveryLatencyDTO;
+import com.example.mqttbrokerapi.dto.MessageEnvelopeDTO;
+import com.example.mqttbrokerapi.service.DeliveryLatency;
+import com.example.mqttbrokerapi.service.MessageEncoding;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.ReceivedMessage;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+public class DeliveryLatencyTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final DeliveryLatency deliveryLatency = new DeliveryLatency(new MqttMetrics(meterRegistry), true, 2);
+
+	@Test
+	public void shouldRecordTheLatencyOfStampedMessages_PerTopic() {
+		deliveryLatency.record(BROKER_NAME, publish("sensors/kitchen", true));
+		deliveryLatency.record(BROKER_NAME, publish("sensors/kitchen", true));
+		deliveryLatency.record(BROKER_NAME, publish("sensors/hall", false));
+
+		final List<DeliveryLatencyDTO> latencies = deliveryLatency.latencies(BROKER_NAME);
+
+		assertEquals(1, latencies.size());
+		assertEquals("sensors/kitchen", latencies.get(0).getTopic());
+		assertEquals(2, latencies.get(0).getCount());
+		assertTrue(latencies.get(0).getMaxMicros() >= 0);
+		assertEquals(2, meterRegistry.get("mqtt.delivery.latency").tag("broker", BROKER_NAME)
+				.tag("topic", "sensors/kitchen").timer().count());
+		assertTrue(deliveryLatency.latencies("broker2").isEmpty());
+	}
+
+	@Test
+	public void shouldShareOneHistogram_BeyondTheMaximumTopics() {
+		deliveryLatency.record(BROKER_NAME, publish("topic1", true));
+		deliveryLatency.record(BROKER_NAME, publish("topic2", true));
+		deliveryLatency.record(BROKER_NAME, publish("topic3", true));
+		deliveryLatency.record(BROKER_NAME, publish("topic4", true));
+
+		assertEquals(List.of(DeliveryLatency.OTHER_TOPICS, "topic1", "topic2"), deliveryLatency.latencies(BROKER_NAME)
+				.stream()
+				.map(DeliveryLatencyDTO::getTopic)
+				.toList());
+	}
+
+	@Test
+	public void shouldAddTheLatencyAndTraceIdToTheEnvelope_OfStampedMessagesOnly() {
+		final MessageEnvelopeDTO stamped = MessageEncoding.envelope(new ReceivedMessage(1, 0, publish("topic1", true)));
+		final MessageEnvelopeDTO plain = MessageEncoding.envelope(new ReceivedMessage(2, 0, publish("topic1", false)));
+
+		assertNotNull(stamped.getLatencyMicros());
+		assertEquals(16, stamped.getUserProperties().get(DeliveryLatency.TRACE_ID).length());
+		assertNull(plain.getLatencyMicros());
+	}
+
+	private Mqtt5Publish publish(final String topic, final boolean stamped) {
+		final Mqtt5Publish mqtt5Publish = Mqtt5Publish.builder()
+				.topic(topic)
+				.payload("payload".getBytes(StandardCharsets.UTF_8))
+				.build();
+		return stamped ? mqtt5Publish.extend().userProperties(deliveryLatency.stamp()).build() : mqtt5Publish;
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.impl.FileBrokerConfigRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+
+public class FileBrokerConfigRepositoryTest {
+	private static final int SSL_PORT = 8883;
+
+	@TempDir
+	Path directory;
+
+	private final List<FileBrokerConfigRepository> opened = new ArrayList<>();
+
+	private FileBrokerConfigRepository brokerConfigRepository;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		brokerConfigRepository = open();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		opened.forEach(FileBrokerConfigRepository::close);
+	}
+
+	@Test
+	public void shouldRecoverConfigurationsFromTheLog() throws IOException {
+		brokerConfigRepository.persistBrokerConfiguration("Broker1", configuration("host1")).block();
+		brokerConfigRepository.persistBrokerConfiguration("Broker2", configuration("host2")).block();
+		brokerConfigRepository.persistBrokerConfiguration("Broker1", configuration("host3")).block();
+		brokerConfigRepository.deleteBrokerConfiguration("Broker2").block();
+
+		reopen();
+		assertEquals(configuration("host3"), brokerConfigRepository.lookupBrokerConfiguration("Broker1").block());
+		assertNull(brokerConfigRepository.lookupBrokerConfiguration("Broker2").block());
+		assertEquals(1, brokerConfigRepository.size());
+	}
+
+	@Test
+	public void shouldCompactTheLogIntoASnapshot() throws IOException {
+		for (int i = 0; i < 250; i++) {
+			brokerConfigRepository.persistBrokerConfiguration("Broker" + i % 10, configuration("host" + i)).block();
+		}
+
+		assertEquals(50 * logRecordBytes("Broker0", "host200"), Files.size(directory.resolve("broker-config.log")));
+		reopen();
+		assertEquals(10, brokerConfigRepository.size());
+		assertEquals(configuration("host249"), brokerConfigRepository.lookupBrokerConfiguration("Broker9").block());
+	}
+
+	@Test
+	public void shouldDiscardATornRecordAtTheEndOfTheLog() throws IOException {
+		brokerConfigRepository.persistBrokerConfiguration("Broker1", configuration("host1")).block();
+		Files.write(directory.resolve("broker-config.log"), new byte[] {0, 0, 0, 42, 1, 2},
+				StandardOpenOption.APPEND);
+
+		reopen();
+		assertEquals(configuration("host1"), brokerConfigRepository.lookupBrokerConfiguration("Broker1").block());
+		brokerConfigRepository.persistBrokerConfiguration("Broker2", configuration("host2")).block();
+
+		reopen();
+		assertEquals(2, brokerConfigRepository.size());
+	}
+
+	@Test
+	public void shouldRecoverABulkUpsertAndDelete_WithTheHostIndex() throws IOException {
+		final long applied = brokerConfigRepository.persistBrokerConfigurations(Flux.range(0, 600)
+				.map(i -> new NamedBrokerConfiguration(String.format("Broker%03d", i), configuration("host" + i % 3))))
+				.block();
+		final long deleted = brokerConfigRepository.deleteBrokerConfigurations(Flux.just("Broker000", "Broker003", "missing"))
+				.block();
+
+		assertEquals(600, applied);
+		assertEquals(2, deleted);
+		reopen();
+		assertEquals(598, brokerConfigRepository.size());
+		assertEquals(List.of("Broker006", "Broker009"), brokerConfigRepository
+				.listBrokerConfigurations("HOST0", SSL_PORT, null, 2)
+				.map(NamedBrokerConfiguration::getBrokerName)
+				.collectList()
+				.block());
+	}
+
+	/**
+	 * Opens the store again without closing the current one, as after a crash.
+	 */
+	private void reopen() throws IOException {
+		brokerConfigRepository = open();
+	}
+
+	private FileBrokerConfigRepository open() throws IOException {
+		final FileBrokerConfigRepository repository = new FileBrokerConfigRepository(directory.toString(),
+				Duration.ofHours(1), 100);
+		repository.startSnapshots();
+		opened.add(repository);
+		return repository;
+	}
+
+	private static BrokerConfiguration configuration(final String hostName) {
+		return BrokerConfiguration.builder()
+				.hostName(hostName)
+				.port(SSL_PORT)
+				.connections(2)
+				.build();
+	}
+
+	private static long logRecordBytes(final String brokerName, final String hostName) {
+		return 2 * Integer.BYTES + 1 + Integer.BYTES + brokerName.length() + Integer.BYTES + hostName.length()
+				+ 2 * Integer.BYTES;
+	}
+}
@@ -0,0 +1,88 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.example.mqttbrokerapi.dto.MessageEnvelopeDTO;
+import com.example.mqttbrokerapi.service.MessageEncoding;
+import com.example.mqttbrokerapi.service.ReceivedMessage;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.junit.jupiter.api.Test;
+
+public class MessageEncodingTest {
+	private final static String TOPIC_1 = "topic1";
+
+	private final static byte[] BINARY_PAYLOAD = {(byte) 0xff, 0x00, (byte) 0xc3, 0x28, 0x7f};
+
+	@Test
+	public void shouldKeepATextPayload_AsText() {
+		final MessageEnvelopeDTO envelope = MessageEncoding.envelope(received("21.5\u00b0C".getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals("21.5\u00b0C", envelope.getPayload());
+		assertNull(envelope.getPayloadEncoding());
+	}
+
+	@Test
+	public void shouldEncodeABinaryPayload_InBase64() {
+		final MessageEnvelopeDTO envelope = MessageEncoding.envelope(received(BINARY_PAYLOAD));
+
+		assertEquals(MessageEncoding.BASE64, envelope.getPayloadEncoding());
+		assertArrayEquals(BINARY_PAYLOAD, Base64.getDecoder().decode(envelope.getPayload()));
+	}
+
+	@Test
+	public void shouldKeepAnEmptyPayload_AsEmptyText() {
+		final MessageEnvelopeDTO envelope = MessageEncoding.envelope(received(new byte[0]));
+
+		assertEquals("", envelope.getPayload());
+		assertNull(envelope.getPayloadEncoding());
+	}
+
+	@Test
+	public void shouldFrameABinaryPayload_ByteForByte() {
+		final ByteBuffer frame = MessageEncoding.frame(received(BINARY_PAYLOAD));
+
+		assertArrayEquals(BINARY_PAYLOAD, payloadOf(frame));
+	}
+
+	@Test
+	public void shouldFrameAnEmptyPayload() {
+		final ByteBuffer frame = MessageEncoding.frame(received(new byte[0]));
+
+		assertEquals(0, payloadOf(frame).length);
+	}
+
+	private static ReceivedMessage received(final byte[] payload) {
+		return new ReceivedMessage(7, 1000, Mqtt5Publish.builder()
+				.topic(TOPIC_1)
+				.qos(MqttQos.AT_LEAST_ONCE)
+				.payload(payload)
+				.build());
+	}
+
+	/**
+	 * Reads the frame up to its payload, checking the fixed fields on the way.
+	 */
+	private static byte[] payloadOf(final ByteBuffer frame) {
+		final int length = frame.getInt();
+		assertEquals(frame.remaining(), length);
+		assertEquals(7, frame.getLong());
+		assertEquals(1000, frame.getLong());
+		assertEquals(MqttQos.AT_LEAST_ONCE.getCode(), frame.get());
+		final byte[] topic = new byte[frame.getShort() & 0xFFFF];
+		frame.get(topic);
+		assertEquals(TOPIC_1, new String(topic, StandardCharsets.UTF_8));
+		assertEquals(0, frame.getShort());
+		final byte[] payload = new byte[frame.remaining()];
+		frame.get(payload);
+		assertFalse(frame.hasRemaining());
+		return payload;
+	}
+}
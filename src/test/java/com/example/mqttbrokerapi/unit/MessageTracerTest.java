@@ -0,0 +1,43 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.example.mqttbrokerapi.service.MessageTracer;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import org.junit.jupiter.api.Test;
+
+public class MessageTracerTest {
+
+	@Test
+	public void shouldNotTrace_WhenSamplingIsDisabled() {
+		final MessageTracer messageTracer = new MessageTracer(0, List.of(), 64);
+
+		assertFalse(messageTracer.shouldTrace(MqttTopic.of("sensors/1/temp")));
+	}
+
+	@Test
+	public void shouldTraceOnlyEnabledTopics() {
+		final MessageTracer messageTracer = new MessageTracer(1, List.of("sensors/+/temp"), 64);
+
+		assertTrue(messageTracer.shouldTrace(MqttTopic.of("sensors/1/temp")));
+		assertFalse(messageTracer.shouldTrace(MqttTopic.of("sensors/1/humidity")));
+	}
+
+	@Test
+	public void shouldTruncatePayload() {
+		final MessageTracer messageTracer = new MessageTracer(1, List.of(), 4);
+		final Mqtt5Publish mqtt5Publish = Mqtt5Publish.builder()
+				.topic("sensors/1/temp")
+				.payload("0123456789".getBytes(StandardCharsets.UTF_8))
+				.build();
+
+		assertEquals("0123... (10 bytes)", messageTracer.truncatedPayload(mqtt5Publish));
+		assertEquals("0123456789", new String(mqtt5Publish.getPayloadAsBytes(), StandardCharsets.UTF_8));
+	}
+}
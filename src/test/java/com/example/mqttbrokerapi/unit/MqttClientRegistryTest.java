@@ -0,0 +1,143 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigurationChangedEvent;
+import com.example.mqttbrokerapi.service.BrokerCircuitBreaker;
+import com.example.mqttbrokerapi.service.ClientConnectWorkFlow;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+public class MqttClientRegistryTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final static int SSL_PORT = 8883;
+
+	private final static String HOST_NAME = "sample.s2.eu.hivemq.cloud";
+
+	@Mock
+	private Function<BrokerConfiguration, Mqtt5ReactorClient> mqtt5ClientFactory;
+
+	@Mock
+	private ClientConnectWorkFlow clientConnectWorkFlow;
+
+	@Mock
+	private Mqtt5ReactorClient mqtt5ReactorClient;
+
+	private BrokerConfiguration brokerConfiguration;
+
+	@BeforeEach
+	public void setUp() {
+		brokerConfiguration = BrokerConfiguration.builder()
+				.port(SSL_PORT)
+				.hostName(HOST_NAME)
+				.build();
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.empty());
+	}
+
+	@Test
+	public void shouldReuseClientAcrossRequests() {
+		final MqttClientRegistry registry = registry(Duration.ofMinutes(5));
+
+		assertSame(mqtt5ReactorClient, registry.acquire(BROKER_NAME, brokerConfiguration).block());
+		assertSame(mqtt5ReactorClient, registry.acquire(BROKER_NAME, brokerConfiguration).block());
+
+		verify(mqtt5ClientFactory, times(1)).apply(brokerConfiguration);
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void shouldEvictClient_WhenBrokerConfigurationChanges() {
+		when(mqtt5ReactorClient.disconnect()).thenReturn(Mono.empty());
+		final MqttClientRegistry registry = registry(Duration.ofMinutes(5));
+		registry.acquire(BROKER_NAME, brokerConfiguration).block();
+
+		registry.onBrokerConfigurationChanged(new BrokerConfigurationChangedEvent(BROKER_NAME));
+
+		verify(mqtt5ReactorClient).disconnect();
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void shouldCloseIdleClients() {
+		when(mqtt5ReactorClient.disconnect()).thenReturn(Mono.empty());
+		final MqttClientRegistry registry = registry(Duration.ZERO);
+		registry.acquire(BROKER_NAME, brokerConfiguration).block();
+
+		registry.evictIdleClients();
+
+		verify(mqtt5ReactorClient).disconnect();
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void shouldKeepLeasedClients_WhenIdleTimeoutPasses() {
+		final MqttClientRegistry registry = registry(Duration.ZERO);
+
+		registry.withClient(BROKER_NAME, brokerConfiguration, client -> Flux.never()).subscribe();
+		registry.evictIdleClients();
+
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void shouldSpreadPublishesOverTheConnections_KeepingTopicsOnOneConnection() {
+		brokerConfiguration.setConnections(3);
+		final Mqtt5ReactorClient second = connectedClient();
+		final Mqtt5ReactorClient third = connectedClient();
+		when(mqtt5ReactorClient.getState()).thenReturn(MqttClientState.CONNECTED);
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient, second, third);
+		final MqttClientRegistry registry = registry(Duration.ofMinutes(5));
+
+		assertSame(mqtt5ReactorClient, registry.acquire(BROKER_NAME, brokerConfiguration).block());
+		assertEquals(Set.of(mqtt5ReactorClient, second, third), IntStream.range(0, 3)
+				.mapToObj(i -> registry.acquire(BROKER_NAME, brokerConfiguration, "topic1", false).block())
+				.collect(Collectors.toSet()));
+		final Mqtt5ReactorClient ordered = registry.acquire(BROKER_NAME, brokerConfiguration, "topic1", true).block();
+		IntStream.range(0, 3).forEach(i ->
+				assertSame(ordered, registry.acquire(BROKER_NAME, brokerConfiguration, "topic1", true).block()));
+		verify(mqtt5ClientFactory, times(3)).apply(brokerConfiguration);
+	}
+
+	private Mqtt5ReactorClient connectedClient() {
+		final Mqtt5ReactorClient client = mock(Mqtt5ReactorClient.class);
+		when(client.getState()).thenReturn(MqttClientState.CONNECTED);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, client)).thenReturn(Mono.empty());
+		return client;
+	}
+
+	private MqttClientRegistry registry(final Duration idleTimeout) {
+		final MqttMetrics mqttMetrics = new MqttMetrics(new SimpleMeterRegistry());
+		return new MqttClientRegistry(mqtt5ClientFactory, clientConnectWorkFlow,
+				new BrokerCircuitBreaker(mqttMetrics, 3, Duration.ofSeconds(1), Duration.ofMinutes(1), 2, 0.2,
+						Duration.ofSeconds(10)),
+				new PublishQueue(mqttMetrics, DataSize.ofMegabytes(1), PublishQueue.OverflowPolicy.REJECT),
+				mqttMetrics, idleTimeout, Duration.ofMinutes(1));
+	}
+}
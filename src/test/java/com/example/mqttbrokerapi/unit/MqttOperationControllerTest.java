@@ -1,30 +1,71 @@
 package com.example.mqttbrokerapi.unit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import com.example.mqttbrokerapi.controller.v1.MqttOperationController;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
 import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.domain.persistance.NamedBrokerConfiguration;
 import com.example.mqttbrokerapi.dto.CreateBrokerConfigDTO;
+import com.example.mqttbrokerapi.dto.BrokerConfigBulkResultDTO;
+import com.example.mqttbrokerapi.dto.BrokerConfigEntryDTO;
+import com.example.mqttbrokerapi.dto.BrokerConfigPageDTO;
+import com.example.mqttbrokerapi.dto.ConsumerGroupDTO;
+import com.example.mqttbrokerapi.dto.DeliveryLatencyDTO;
+import com.example.mqttbrokerapi.dto.MessageEnvelopeDTO;
+import com.example.mqttbrokerapi.dto.PublishBatchResultDTO;
 import com.example.mqttbrokerapi.exception.BrokerConfigException;
+import com.example.mqttbrokerapi.exception.PublishQueueFullException;
+import com.example.mqttbrokerapi.service.AdmissionControl;
+import com.example.mqttbrokerapi.service.BrokerCircuitBreaker;
 import com.example.mqttbrokerapi.service.ClientConnectWorkFlow;
+import com.example.mqttbrokerapi.service.LastValueCache;
+import com.example.mqttbrokerapi.service.MessageEncoding;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishConnections;
+import com.example.mqttbrokerapi.service.PublishQueue;
 import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.example.mqttbrokerapi.service.ReceivedMessage;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer;
 import com.example.mqttbrokerapi.service.SubscriptionWorkFlow;
 import com.hivemq.client.internal.mqtt.message.connect.connack.MqttConnAck;
 import com.hivemq.client.internal.mqtt.message.publish.MqttPublishResult;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperties;
+import com.hivemq.client.mqtt.mqtt5.datatypes.Mqtt5UserProperty;
 import com.hivemq.client.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAckReasonCode;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
 import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
@@ -34,6 +75,8 @@ import reactor.core.publisher.Mono;
 
 @ExtendWith(SpringExtension.class)
 @WebFluxTest(MqttOperationController.class)
+@Import({MqttClientRegistry.class, MqttMetrics.class, SimpleMeterRegistry.class, LastValueCache.class,
+		PublishQueue.class, BrokerCircuitBreaker.class, AdmissionControl.class})
 public class MqttOperationControllerTest {
 
 	public static final String NOT_EXITS = "NOT_EXITS";
@@ -54,6 +97,12 @@ public class MqttOperationControllerTest {
 	private ClientConnectWorkFlow clientConnectWorkFlow;
 	@MockBean
 	private PublisherWorkFlow publisherWorkFlow;
+	@Autowired
+	private MqttClientRegistry mqttClientRegistry;
+	@Autowired
+	private LastValueCache lastValueCache;
+	@Autowired
+	private BrokerCircuitBreaker circuitBreaker;
 	@MockBean
 	private Mqtt5ReactorClient mqtt5ReactorClient;
 	@MockBean
@@ -65,6 +114,7 @@ public class MqttOperationControllerTest {
 	private final static String BROKER_NAME = "broker1";
 	private final static int SSL_PORT = 8883;
 	private final static String HOST_NAME = "sample.s2.eu.hivemq.cloud";
+	private final static long RECEIVED_AT = 1700000000000L;
 	private BrokerConfiguration brokerConfiguration;
 	private CreateBrokerConfigDTO createBrokerConfigDTO;
 	@BeforeEach
@@ -80,6 +130,11 @@ public class MqttOperationControllerTest {
 				.build();
 	}
 
+	@AfterEach
+	public void tearDown() {
+		mqttClientRegistry.evict(BROKER_NAME);
+	}
+
 	@Test
 	public void shouldGetBrokerConfiguration() {
 		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
@@ -145,6 +200,66 @@ public class MqttOperationControllerTest {
 				.isOk();
 	}
 
+	@Test
+	public void shouldUpsertBrokerConfigurationsInBulk_AndCountTheIncompleteOnes() {
+		when(brokerConfigRepository.persistBrokerConfigurations(any()))
+				.thenAnswer(invocation -> invocation.<Flux<NamedBrokerConfiguration>>getArgument(0).count());
+		webClient
+				.put().uri("/mqtt")
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(BodyInserters.fromValue("{\"broker_name\":\"broker1\",\"host_name\":\"host1\",\"port\":8883}\n"
+						+ "{\"broker_name\":\"broker2\",\"host_name\":\"host1\",\"port\":1883}\n"
+						+ "{\"broker_name\":\"broker3\"}\n"))
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(BrokerConfigBulkResultDTO.class)
+				.isEqualTo(new BrokerConfigBulkResultDTO(2, 1));
+	}
+
+	@Test
+	public void shouldEndTheListing_WhenTheLastPageIsExactlyFull() {
+		when(brokerConfigRepository.listBrokerConfigurations(null, null, "broker3", 3)).thenReturn(Flux.just(
+				new NamedBrokerConfiguration("broker4", brokerConfiguration),
+				new NamedBrokerConfiguration("broker5", brokerConfiguration)));
+		webClient
+				.get().uri("/mqtt?after=broker3&limit=2")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(BrokerConfigPageDTO.class)
+				.value(page -> {
+					assertEquals(2, page.getBrokers().size());
+					assertNull(page.getNext());
+				});
+	}
+
+	@Test
+	public void shouldListBrokerConfigurationsOfAHost_APageAtATime() {
+		when(brokerConfigRepository.listBrokerConfigurations(HOST_NAME, SSL_PORT, "broker1", 3)).thenReturn(Flux.just(
+				new NamedBrokerConfiguration("broker2", brokerConfiguration),
+				new NamedBrokerConfiguration("broker3", brokerConfiguration),
+				new NamedBrokerConfiguration("broker4", brokerConfiguration)));
+		webClient
+				.get().uri("/mqtt?host={host}&port={port}&after=broker1&limit=2", HOST_NAME, SSL_PORT)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(BrokerConfigPageDTO.class)
+				.value(page -> {
+					assertEquals(List.of("broker2", "broker3"), page.getBrokers().stream()
+							.map(BrokerConfigEntryDTO::getBrokerName)
+							.toList());
+					assertEquals(HOST_NAME, page.getBrokers().get(0).getHostName());
+					assertEquals("broker3", page.getNext());
+				});
+		webClient
+				.get().uri("/mqtt?port=" + SSL_PORT)
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
 	@Test
 	public void shouldReturnBadRequest_WhenPayloadIsNull() {
 		webClient
@@ -212,10 +327,10 @@ public class MqttOperationControllerTest {
 	public void shouldPublishWthProperBrokerConfig() {
 		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
 		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
-		when(clientConnectWorkFlow.connectSubscriber(mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
 		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
-		when(publisherWorkFlow.publishWorkFlow(mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1))
-				.thenReturn(Flux.just(mqttPublishResult));
+		when(publisherWorkFlow.publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1, MqttQos.AT_LEAST_ONCE, false))
+				.thenReturn(Mono.just(mqttPublishResult));
 		webClient
 				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1)
 				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
@@ -224,11 +339,116 @@ public class MqttOperationControllerTest {
 				.isOk();
 	}
 
+	@Test
+	public void shouldAnswerServiceUnavailable_WhileTheCircuitOfTheBrokerIsOpen() {
+		final String brokerName = "unreachable";
+		when(brokerConfigRepository.lookupBrokerConfiguration(brokerName)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		final AtomicInteger connects = new AtomicInteger();
+		when(clientConnectWorkFlow.connectSubscriber(brokerName, mqtt5ReactorClient))
+				.thenReturn(Mono.fromRunnable(connects::incrementAndGet));
+		IntStream.range(0, 3).forEach(i -> circuitBreaker.recordFailure(brokerName));
+		webClient
+				.post().uri("/mqtt/"+ brokerName +"/send/"+ TOPIC_1 + "?ack=true")
+				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
+				.exchange()
+				.expectStatus()
+				.isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+				.expectHeader()
+				.exists(HttpHeaders.RETRY_AFTER);
+
+		assertEquals(0, connects.get());
+		mqttClientRegistry.evict(brokerName);
+	}
+
+	@Test
+	public void shouldPublishWithRequestedQos_AndCompleteAfterAck() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(publisherWorkFlow.publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1, MqttQos.EXACTLY_ONCE, true))
+				.thenReturn(Mono.just(mqttPublishResult));
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1 +"?qos=2&ack=true")
+				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
+				.exchange()
+				.expectStatus()
+				.isOk();
+
+		verify(publisherWorkFlow).publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1, MqttQos.EXACTLY_ONCE, true);
+	}
+
+	@Test
+	public void shouldReturnBadGateway_WhenAckModePublishIsNotAcknowledged() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(mqttPublishResult.getError()).thenReturn(Optional.of(new IllegalStateException("not authorized")));
+		when(publisherWorkFlow.publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1, MqttQos.AT_LEAST_ONCE, true))
+				.thenReturn(Mono.just(mqttPublishResult));
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1 +"?ack=true")
+				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
+				.exchange()
+				.expectStatus()
+				.isEqualTo(HttpStatus.BAD_GATEWAY);
+	}
+
+	@Test
+	public void shouldReturnTooManyRequests_WhenPublishQueueIsFull() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(publisherWorkFlow.publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, MESSAGE_TO_THE_BORKER, TOPIC_1, MqttQos.AT_LEAST_ONCE, false))
+				.thenReturn(Mono.error(new PublishQueueFullException(BROKER_NAME)));
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1)
+				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
+				.exchange()
+				.expectStatus()
+				.isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+	}
+
+	@Test
+	public void shouldReturnBadRequest_WhenQosIsInvalid() {
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1 +"?qos=3")
+				.body(BodyInserters.fromValue(MESSAGE_TO_THE_BORKER))
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
+	@Test
+	public void shouldPublishBatchWithProperBrokerConfig() {
+		final PublishBatchResultDTO publishBatchResultDTO = PublishBatchResultDTO.builder().published(2).build();
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(publisherWorkFlow.publishBatchWorkFlow(eq(BROKER_NAME), any(PublishConnections.class), any(),
+				eq(MqttQos.AT_LEAST_ONCE), eq(true)))
+				.thenReturn(Mono.just(publishBatchResultDTO));
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send")
+				.contentType(MediaType.APPLICATION_NDJSON)
+				.body(BodyInserters.fromValue("{\"topic\":\"topic1\",\"payload\":\"a\"}\n"
+						+ "{\"topic\":\"topic1\",\"payload\":\"b\"}\n"))
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(PublishBatchResultDTO.class)
+				.isEqualTo(publishBatchResultDTO);
+	}
+
 	@Test
 	public void shouldThrowException_WhenAckFails() {
 		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
 		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
-		when(clientConnectWorkFlow.connectSubscriber(mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
 		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.BAD_AUTHENTICATION_METHOD);
 
 		webClient
@@ -247,9 +467,9 @@ public class MqttOperationControllerTest {
 	public void shouldSubscribeWithProperBrokerConfig() {
 		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
 		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
-		when(clientConnectWorkFlow.connectSubscriber(mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
 		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
-		when(subscriptionWorkFlow.subscriptionWorkFlow(mqtt5ReactorClient, TOPIC_1))
+		when(subscriptionWorkFlow.subscriptionWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null, null))
 				.thenReturn(Flux.just(MESSAGE_TO_THE_BORKER));
 		webClient
 				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1)
@@ -261,4 +481,271 @@ public class MqttOperationControllerTest {
 					assertTrue(new String(entityExchangeResult.getResponseBody()).equals(MESSAGE_TO_THE_BORKER));
 				});
 	}
+
+	@Test
+	public void shouldPublishBinaryPayloadWithProperBrokerConfig() {
+		final byte[] payload = {0, (byte) 0xff, 1, (byte) 0x80};
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(publisherWorkFlow.publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, ByteBuffer.wrap(payload), TOPIC_1, MqttQos.AT_LEAST_ONCE, false))
+				.thenReturn(Mono.just(mqttPublishResult));
+		webClient
+				.post().uri("/mqtt/"+ BROKER_NAME +"/send/"+ TOPIC_1)
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.body(BodyInserters.fromValue(payload))
+				.exchange()
+				.expectStatus()
+				.isOk();
+
+		verify(publisherWorkFlow).publishWorkFlow(BROKER_NAME, mqtt5ReactorClient, ByteBuffer.wrap(payload), TOPIC_1, MqttQos.AT_LEAST_ONCE, false);
+	}
+
+	@Test
+	public void shouldSubscribeBinaryWithProperBrokerConfig() {
+		final byte[] payload = {0, (byte) 0xff, 1, (byte) 0x80};
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.binarySubscriptionWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null, null))
+				.thenReturn(Flux.just(ByteBuffer.wrap(payload)));
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1)
+				.accept(MediaType.APPLICATION_OCTET_STREAM)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(byte[].class)
+				.isEqualTo(payload);
+	}
+
+	@Test
+	public void shouldSubscribeWithRequestedBufferAndOverflowStrategy() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.subscriptionWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, 16,
+				SubscriptionMultiplexer.OverflowStrategy.CONFLATE, null))
+				.thenReturn(Flux.just(MESSAGE_TO_THE_BORKER));
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1 + "?buffer=16&overflow=conflate")
+				.exchange()
+				.expectStatus()
+				.isOk();
+
+		verify(subscriptionWorkFlow).subscriptionWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, 16,
+				SubscriptionMultiplexer.OverflowStrategy.CONFLATE, null);
+	}
+
+	@Test
+	public void shouldSubscribeToTheSharedSubscription_OfTheRequestedGroup() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.subscriptionWorkFlow(BROKER_NAME, mqtt5ReactorClient, "$share/workers/" + TOPIC_1,
+				null, null, null))
+				.thenReturn(Flux.just(MESSAGE_TO_THE_BORKER));
+		when(subscriptionWorkFlow.consumerGroups(BROKER_NAME)).thenReturn(List.of(new ConsumerGroupDTO("workers", TOPIC_1, 1)));
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1 + "?group=workers")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(String.class)
+				.isEqualTo(MESSAGE_TO_THE_BORKER);
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/groups")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBodyList(ConsumerGroupDTO.class)
+				.isEqualTo(List.of(new ConsumerGroupDTO("workers", TOPIC_1, 1)));
+	}
+
+	@Test
+	public void shouldListTheDeliveryLatencyPerTopic() {
+		final DeliveryLatencyDTO latency = DeliveryLatencyDTO.builder().topic(TOPIC_1).count(2).p99Micros(1500).build();
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(subscriptionWorkFlow.deliveryLatencies(BROKER_NAME)).thenReturn(List.of(latency));
+
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/latency")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBodyList(DeliveryLatencyDTO.class)
+				.isEqualTo(List.of(latency));
+	}
+
+	@Test
+	public void shouldReturnBadRequest_WhenAGroupResumesFromAnOffset() {
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1 + "?group=workers&fromOffset=3")
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
+	@Test
+	public void shouldReturnBadRequest_WhenOverflowStrategyIsUnknown() {
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1 + "?overflow=spill")
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
+	@Test
+	public void shouldAnswerTheLatestCachedMessage_WithoutTouchingTheBroker() {
+		lastValueCache.put(BROKER_NAME, Mqtt5Publish.builder()
+				.topic(TOPIC_1)
+				.payload(MESSAGE_TO_THE_BORKER.getBytes(StandardCharsets.UTF_8))
+				.build());
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/latest/"+ TOPIC_1)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(String.class)
+				.isEqualTo(MESSAGE_TO_THE_BORKER);
+
+		verifyNoInteractions(mqtt5ClientFactory, brokerConfigRepository);
+	}
+
+	@Test
+	public void shouldReturnNotFound_WhenNoMessageOfTheTopicIsCached() {
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/latest/unknown")
+				.exchange()
+				.expectStatus()
+				.isNotFound();
+	}
+
+	@Test
+	public void shouldResumeEventStreamAfterLastEventId() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.messageWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null, 42L))
+				.thenReturn(Flux.just(new ReceivedMessage(42, System.currentTimeMillis(), Mqtt5Publish.builder()
+						.topic(TOPIC_1)
+						.payload(MESSAGE_TO_THE_BORKER.getBytes(StandardCharsets.UTF_8))
+						.build())));
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1)
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.header("Last-Event-ID", "41")
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(String.class)
+				.consumeWith(entityExchangeResult -> {
+					assertTrue(entityExchangeResult.getResponseBody().contains("id:42"));
+					assertTrue(entityExchangeResult.getResponseBody().contains("data:" + MESSAGE_TO_THE_BORKER));
+				});
+	}
+
+	@Test
+	public void shouldStreamEnvelopes_WhenNdjsonIsAccepted() {
+		stubReceivedMessage();
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1)
+				.accept(MediaType.APPLICATION_NDJSON)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBodyList(MessageEnvelopeDTO.class)
+				.value(envelopes -> {
+					assertEquals(1, envelopes.size());
+					assertEquals(TOPIC_1, envelopes.get(0).getTopic());
+					assertEquals(2, envelopes.get(0).getQos());
+					assertEquals(Instant.ofEpochMilli(RECEIVED_AT), envelopes.get(0).getReceivedAt());
+					assertEquals(Map.of("source", "sensor"), envelopes.get(0).getUserProperties());
+					assertEquals(MESSAGE_TO_THE_BORKER, envelopes.get(0).getPayload());
+				});
+	}
+
+	@Test
+	public void shouldStreamEnvelopesOfSeveralTopics_WithTheirQos() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.messageWorkFlow(BROKER_NAME, mqtt5ReactorClient, List.of(
+						Mqtt5Subscription.builder().topicFilter("sensors/+/temp").qos(MqttQos.EXACTLY_ONCE).build(),
+						Mqtt5Subscription.builder().topicFilter(TOPIC_1).qos(MqttQos.AT_MOST_ONCE).build()),
+				null, null, null))
+				.thenReturn(Flux.just(
+						new ReceivedMessage(1, RECEIVED_AT, Mqtt5Publish.builder().topic("sensors/hall/temp").build()),
+						new ReceivedMessage(2, RECEIVED_AT, Mqtt5Publish.builder().topic(TOPIC_1).build())));
+
+		webClient
+				.get().uri("/mqtt/{broker}/get?topic={filter}&topic={topic}&qos=2&qos=0", BROKER_NAME, "sensors/+/temp", TOPIC_1)
+				.accept(MediaType.APPLICATION_NDJSON)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBodyList(MessageEnvelopeDTO.class)
+				.value(envelopes -> assertEquals(List.of("sensors/hall/temp", TOPIC_1),
+						envelopes.stream().map(MessageEnvelopeDTO::getTopic).toList()));
+	}
+
+	@Test
+	public void shouldRejectSeveralTopics_WhenTheQosDoNotMatchThem() {
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get?topic=a&topic=b&topic=c&qos=1&qos=0")
+				.accept(MediaType.APPLICATION_NDJSON)
+				.exchange()
+				.expectStatus()
+				.isBadRequest();
+	}
+
+	@Test
+	public void shouldStreamLengthPrefixedFrames_WhenFramesAreAccepted() {
+		stubReceivedMessage();
+		webClient
+				.get().uri("/mqtt/"+ BROKER_NAME +"/get/"+ TOPIC_1)
+				.accept(MessageEncoding.FRAMES)
+				.exchange()
+				.expectStatus()
+				.isOk()
+				.expectBody(byte[].class)
+				.consumeWith(entityExchangeResult -> {
+					final ByteBuffer frame = ByteBuffer.wrap(entityExchangeResult.getResponseBody());
+					assertEquals(frame.remaining() - Integer.BYTES, frame.getInt());
+					assertEquals(42, frame.getLong());
+					assertEquals(RECEIVED_AT, frame.getLong());
+					assertEquals(2, frame.get());
+					assertEquals(TOPIC_1, string(frame, frame.getShort()));
+					assertEquals(1, frame.getShort());
+					assertEquals("source", string(frame, frame.getShort()));
+					assertEquals("sensor", string(frame, frame.getShort()));
+					assertEquals(MESSAGE_TO_THE_BORKER, string(frame, frame.remaining()));
+				});
+	}
+
+	private void stubReceivedMessage() {
+		when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		when(mqtt5ClientFactory.apply(brokerConfiguration)).thenReturn(mqtt5ReactorClient);
+		when(clientConnectWorkFlow.connectSubscriber(BROKER_NAME, mqtt5ReactorClient)).thenReturn(Mono.just(mqttConnAck));
+		when(mqttConnAck.getReasonCode()).thenReturn(Mqtt5ConnAckReasonCode.SUCCESS);
+		when(subscriptionWorkFlow.messageWorkFlow(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null, null))
+				.thenReturn(Flux.just(new ReceivedMessage(42, RECEIVED_AT, Mqtt5Publish.builder()
+						.topic(TOPIC_1)
+						.qos(MqttQos.EXACTLY_ONCE)
+						.userProperties(Mqtt5UserProperties.of(Mqtt5UserProperty.of("source", "sensor")))
+						.payload(MESSAGE_TO_THE_BORKER.getBytes(StandardCharsets.UTF_8))
+						.build())));
+	}
+
+	private static String string(final ByteBuffer buffer, final int length) {
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
 }
@@ -0,0 +1,175 @@
+package com.example.mqttbrokerapi.unit;
+
+import static com.example.mqttbrokerapi.unit.PublishTestSupport.await;
+import static com.example.mqttbrokerapi.unit.PublishTestSupport.publish;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.example.mqttbrokerapi.exception.PublishQueueFullException;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+@ExtendWith(MockitoExtension.class)
+public class PublishQueueTest {
+	private final static String BROKER_NAME = "broker1";
+
+	@Mock
+	private Mqtt5ReactorClient mqtt5ReactorClient;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final List<Mqtt5Publish> written = new CopyOnWriteArrayList<>();
+
+	private final Sinks.Many<Mqtt5Publish> acknowledgements = Sinks.many().unicast().onBackpressureBuffer();
+
+	private PublishQueue publishQueue;
+
+	@BeforeEach
+	public void setUp() {
+		when(mqtt5ReactorClient.publish(any())).thenAnswer(invocation -> {
+			final Publisher<Mqtt5Publish> publishes = invocation.getArgument(0);
+			Flux.from(publishes).subscribe(written::add);
+			return acknowledgements.asFlux().map(PublishTestSupport::result);
+		});
+	}
+
+	@AfterEach
+	public void tearDown() {
+		publishQueue.shutdown();
+	}
+
+	@Test
+	public void shouldWriteAllRequestsThroughOnePublishFlow() {
+		publishQueue = publishQueue(DataSize.ofMegabytes(1), PublishQueue.OverflowPolicy.REJECT);
+		final List<Mqtt5PublishResult> results = new CopyOnWriteArrayList<>();
+
+		for (int i = 0; i < 10; i++) {
+			StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i),
+							results::add, throwable -> { }))
+					.verifyComplete();
+		}
+		await(() -> written.size() == 10);
+		written.forEach(acknowledgements::tryEmitNext);
+
+		verify(mqtt5ReactorClient, times(1)).publish(any());
+		assertEquals(10, results.size());
+		assertEquals(0, publishQueue.queuedBytes(BROKER_NAME));
+	}
+
+	@Test
+	public void shouldTakeEveryMessage_WhenOfferedFromSeveralThreads() throws InterruptedException {
+		publishQueue = publishQueue(DataSize.ofMegabytes(1), PublishQueue.OverflowPolicy.REJECT);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int thread = 0; thread < 8; thread++) {
+			executor.execute(() -> {
+				for (int i = 0; i < 1000; i++) {
+					publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i),
+							pubResult -> { }, throwable -> { }).block();
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+		await(() -> written.size() == 8000);
+		verify(mqtt5ReactorClient, times(1)).publish(any());
+	}
+
+	@Test
+	public void shouldRejectMessages_WhenMemoryBudgetIsExhausted() {
+		publishQueue = publishQueue(DataSize.ofBytes(16), PublishQueue.OverflowPolicy.REJECT);
+
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("first"),
+						pubResult -> { }, throwable -> { }))
+				.verifyComplete();
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("second"),
+						pubResult -> { }, throwable -> { }))
+				.verifyError(PublishQueueFullException.class);
+
+		assertEquals(1, meterRegistry.get("mqtt.publish.queue.overflow").tag("broker", BROKER_NAME)
+				.tag("action", "rejected").counter().count(), 0);
+	}
+
+	@Test
+	public void shouldAccountTheTopicInUtf8Bytes() {
+		publishQueue = publishQueue(DataSize.ofMegabytes(1), PublishQueue.OverflowPolicy.REJECT);
+		final String topic = "sensors/k\u00fcche/\u00b0C";
+
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, Mqtt5Publish.builder()
+								.topic(topic)
+								.payload("21.5".getBytes(StandardCharsets.UTF_8))
+								.build(),
+						pubResult -> { }, throwable -> { }))
+				.verifyComplete();
+
+		assertEquals(topic.getBytes(StandardCharsets.UTF_8).length + 4, publishQueue.queuedBytes(BROKER_NAME));
+	}
+
+	@Test
+	public void shouldHoldMessages_UntilTheBudgetIsReleased_WhenPolicyIsBlock() {
+		publishQueue = publishQueue(DataSize.ofBytes(16), PublishQueue.OverflowPolicy.BLOCK);
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("first"),
+						pubResult -> { }, throwable -> { }))
+				.verifyComplete();
+
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("second"),
+						pubResult -> { }, throwable -> { }))
+				.then(() -> {
+					await(() -> written.size() == 1);
+					assertTrue(publishQueue.queuedBytes(BROKER_NAME) > 0);
+					acknowledgements.tryEmitNext(written.get(0));
+				})
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+		await(() -> written.size() == 2);
+	}
+
+	@Test
+	public void shouldReportWaitingMessages_WhenThePublishFlowFails() {
+		publishQueue = publishQueue(DataSize.ofBytes(16), PublishQueue.OverflowPolicy.BLOCK);
+		final List<Throwable> errors = new CopyOnWriteArrayList<>();
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("first"),
+						pubResult -> { }, errors::add))
+				.verifyComplete();
+
+		StepVerifier.create(publishQueue.offer(BROKER_NAME, mqtt5ReactorClient, publish("second"),
+						pubResult -> { }, errors::add))
+				.then(() -> acknowledgements.tryEmitError(new IllegalStateException("connection lost")))
+				.expectError(IllegalStateException.class)
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(2, errors.size());
+		assertEquals(0, publishQueue.queuedBytes(BROKER_NAME));
+	}
+
+	private PublishQueue publishQueue(final DataSize memoryBudget, final PublishQueue.OverflowPolicy overflowPolicy) {
+		return new PublishQueue(new MqttMetrics(meterRegistry), memoryBudget, overflowPolicy);
+	}
+}
@@ -0,0 +1,212 @@
+package com.example.mqttbrokerapi.unit;
+
+import static com.example.mqttbrokerapi.unit.PublishTestSupport.await;
+import static com.example.mqttbrokerapi.unit.PublishTestSupport.publish;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import com.example.mqttbrokerapi.config.MqttClientConnectedEvent;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfigRepository;
+import com.example.mqttbrokerapi.domain.persistance.BrokerConfiguration;
+import com.example.mqttbrokerapi.service.MqttClientRegistry;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.example.mqttbrokerapi.service.PublishSpool;
+import com.hivemq.client.mqtt.MqttClientConfig;
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+public class PublishSpoolTest {
+	private final static String BROKER_NAME = "broker1";
+
+	@TempDir
+	Path directory;
+
+	@Mock
+	private Mqtt5ReactorClient mqtt5ReactorClient;
+
+	@Mock
+	private MqttClientRegistry mqttClientRegistry;
+
+	@Mock
+	private BrokerConfigRepository brokerConfigRepository;
+
+	@Mock
+	private MqttClientConfig clientConfig;
+
+	@Mock
+	private MqttClientConfig otherClientConfig;
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(new SimpleMeterRegistry());
+
+	private final List<String> written = new CopyOnWriteArrayList<>();
+
+	private volatile MqttClientState state = MqttClientState.DISCONNECTED;
+
+	private volatile boolean sessionEnds;
+
+	@BeforeEach
+	public void setUp() {
+		final BrokerConfiguration brokerConfiguration = BrokerConfiguration.builder().hostName("localhost").port(1883).build();
+		lenient().when(mqtt5ReactorClient.getState()).thenAnswer(invocation -> state);
+		lenient().when(mqtt5ReactorClient.publish(any())).thenAnswer(invocation -> {
+			final Publisher<Mqtt5Publish> publishes = invocation.getArgument(0);
+			return Flux.from(publishes)
+					.map(mqtt5Publish -> {
+						if (sessionEnds) {
+							// the client answers the publishes in flight with an error once the session is gone
+							state = MqttClientState.DISCONNECTED;
+							return PublishTestSupport.result(mqtt5Publish, new IllegalStateException("Session ended"));
+						}
+						written.add(StandardCharsets.UTF_8.decode(mqtt5Publish.getPayload().get()).toString());
+						return PublishTestSupport.result(mqtt5Publish);
+					});
+		});
+		lenient().when(brokerConfigRepository.lookupBrokerConfiguration(BROKER_NAME)).thenReturn(Mono.just(brokerConfiguration));
+		lenient().when(mqttClientRegistry.acquire(BROKER_NAME, brokerConfiguration)).thenReturn(Mono.just(mqtt5ReactorClient));
+		lenient().when(mqttClientRegistry.brokerNameOf(clientConfig)).thenReturn(Optional.of(BROKER_NAME));
+		lenient().when(mqttClientRegistry.brokerNameOf(otherClientConfig)).thenReturn(Optional.of("broker2"));
+	}
+
+	@Test
+	public void shouldSpoolWhileDisconnected_AndDrainInOrderOnceConnected() throws IOException {
+		final PublishSpool publishSpool = publishSpool(DataSize.ofKilobytes(64));
+
+		assertTrue(publishSpool.shouldSpool(BROKER_NAME, mqtt5ReactorClient));
+		for (int i = 0; i < 100; i++) {
+			publishSpool.append(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i)).block();
+		}
+		assertEquals(100, publishSpool.pendingMessages(BROKER_NAME));
+		assertTrue(written.isEmpty());
+
+		state = MqttClientState.CONNECTED;
+		publishSpool.onClientConnected(new MqttClientConnectedEvent(clientConfig));
+
+		await(() -> publishSpool.pendingMessages(BROKER_NAME) == 0);
+		assertEquals(100, written.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("message-" + i, written.get(i));
+		}
+		assertFalse(publishSpool.shouldSpool(BROKER_NAME, mqtt5ReactorClient));
+		await(() -> segmentFiles() == 0);
+	}
+
+	@Test
+	public void shouldKeepMessages_WhenTheirPublishResultIsAnError() throws IOException {
+		final PublishSpool publishSpool = publishSpool(DataSize.ofBytes(128));
+		for (int i = 0; i < 20; i++) {
+			publishSpool.append(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i)).block();
+		}
+		final long segments = segmentFiles();
+
+		sessionEnds = true;
+		state = MqttClientState.CONNECTED;
+		publishSpool.onClientConnected(new MqttClientConnectedEvent(clientConfig));
+
+		await(() -> state == MqttClientState.DISCONNECTED);
+		assertEquals(20, publishSpool.pendingMessages(BROKER_NAME));
+		assertEquals(segments, segmentFiles());
+
+		sessionEnds = false;
+		state = MqttClientState.CONNECTED;
+		publishSpool.onClientConnected(new MqttClientConnectedEvent(clientConfig));
+
+		await(() -> publishSpool.pendingMessages(BROKER_NAME) == 0);
+		assertEquals(20, written.size());
+		assertEquals("message-0", written.get(0));
+		await(() -> segmentFiles() == 0);
+	}
+
+	@Test
+	public void shouldKeepSpooling_WhenAnotherBrokerConnects() throws IOException {
+		final PublishSpool publishSpool = publishSpool(DataSize.ofKilobytes(64));
+		publishSpool.append(BROKER_NAME, mqtt5ReactorClient, publish("message")).block();
+
+		state = MqttClientState.CONNECTED;
+		publishSpool.onClientConnected(new MqttClientConnectedEvent(otherClientConfig));
+
+		assertEquals(1, publishSpool.pendingMessages(BROKER_NAME));
+		assertTrue(written.isEmpty());
+		verify(brokerConfigRepository, never()).lookupBrokerConfiguration(any());
+	}
+
+	@Test
+	public void shouldRotateSegments_AndDeleteThemAfterAcknowledgement() throws IOException {
+		final PublishSpool publishSpool = publishSpool(DataSize.ofBytes(128));
+		for (int i = 0; i < 20; i++) {
+			publishSpool.append(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i)).block();
+		}
+		assertTrue(segmentFiles() > 1);
+
+		state = MqttClientState.CONNECTED;
+		publishSpool.onClientConnected(new MqttClientConnectedEvent(clientConfig));
+
+		await(() -> publishSpool.pendingMessages(BROKER_NAME) == 0);
+		assertEquals(20, written.size());
+		await(() -> segmentFiles() == 0);
+	}
+
+	@Test
+	public void shouldRecoverSpooledMessages_AfterRestart() throws IOException {
+		final PublishSpool publishSpool = publishSpool(DataSize.ofBytes(128));
+		for (int i = 0; i < 20; i++) {
+			publishSpool.append(BROKER_NAME, mqtt5ReactorClient, publish("message-" + i)).block();
+		}
+		publishSpool.shutdown();
+
+		final PublishSpool recovered = publishSpool(DataSize.ofBytes(128));
+
+		assertEquals(20, recovered.pendingMessages(BROKER_NAME));
+		state = MqttClientState.CONNECTED;
+		recovered.onClientConnected(new MqttClientConnectedEvent(clientConfig));
+		await(() -> recovered.pendingMessages(BROKER_NAME) == 0);
+		assertEquals("message-0", written.get(0));
+		assertEquals("message-19", written.get(19));
+	}
+
+	private PublishSpool publishSpool(final DataSize segmentSize) throws IOException {
+		final PublishQueue publishQueue = new PublishQueue(mqttMetrics, DataSize.ofMegabytes(1),
+				PublishQueue.OverflowPolicy.REJECT);
+		final PublishSpool publishSpool = new PublishSpool(publishQueue, mqttClientRegistry, brokerConfigRepository,
+				mqttMetrics, true, directory.toString(), segmentSize);
+		publishSpool.recover();
+		return publishSpool;
+	}
+
+	private long segmentFiles() {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(file -> file.toString().endsWith(".seg")).count();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5PublishResult;
+
+/**
+ * Publish builders and waiting helpers shared by the publish queue and spool tests.
+ */
+final class PublishTestSupport {
+	static final String TOPIC_1 = "topic1";
+
+	private PublishTestSupport() {
+	}
+
+	static Mqtt5Publish publish(final String payload) {
+		return Mqtt5Publish.builder()
+				.topic(TOPIC_1)
+				.qos(MqttQos.AT_LEAST_ONCE)
+				.payload(payload.getBytes(StandardCharsets.UTF_8))
+				.build();
+	}
+
+	static Mqtt5PublishResult result(final Mqtt5Publish mqtt5Publish) {
+		final Mqtt5PublishResult mqtt5PublishResult = mock(Mqtt5PublishResult.class);
+		when(mqtt5PublishResult.getPublish()).thenReturn(mqtt5Publish);
+		return mqtt5PublishResult;
+	}
+
+	static Mqtt5PublishResult result(final Mqtt5Publish mqtt5Publish, final Throwable error) {
+		final Mqtt5PublishResult mqtt5PublishResult = result(mqtt5Publish);
+		when(mqtt5PublishResult.getError()).thenReturn(Optional.of(error));
+		return mqtt5PublishResult;
+	}
+
+	static void await(final BooleanSupplier condition) {
+		final long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				throw new AssertionError("Condition not met within 5 seconds");
+			}
+			Thread.onSpinWait();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.example.mqttbrokerapi.dto.PublishBatchResultDTO;
+import com.example.mqttbrokerapi.dto.PublishMessageDTO;
+import com.example.mqttbrokerapi.service.DeliveryLatency;
+import com.example.mqttbrokerapi.service.MessageTracer;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.PublishQueue;
+import com.example.mqttbrokerapi.service.PublishSpool;
+import com.example.mqttbrokerapi.service.PublisherWorkFlow;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+@ExtendWith(MockitoExtension.class)
+public class PublisherWorkFlowTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final static String NACKED_TOPIC = "nacked";
+
+	private final static String BROKEN_TOPIC = "broken";
+
+	@Mock
+	private Mqtt5ReactorClient mqtt5ReactorClient;
+
+	@Mock
+	private Mqtt5ReactorClient brokenMqtt5ReactorClient;
+
+	@Mock
+	private PublishSpool publishSpool;
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(new SimpleMeterRegistry());
+
+	private PublishQueue publishQueue;
+
+	private PublisherWorkFlow publisherWorkFlow;
+
+	@BeforeEach
+	public void setUp() {
+		when(mqtt5ReactorClient.publish(any())).thenAnswer(invocation -> {
+			final Publisher<Mqtt5Publish> publishes = invocation.getArgument(0);
+			return Flux.from(publishes)
+					.map(mqtt5Publish -> NACKED_TOPIC.equals(mqtt5Publish.getTopic().toString())
+							? PublishTestSupport.result(mqtt5Publish, new IllegalStateException("not acknowledged"))
+							: PublishTestSupport.result(mqtt5Publish));
+		});
+		when(brokenMqtt5ReactorClient.publish(any())).thenAnswer(invocation -> {
+			final Publisher<Mqtt5Publish> publishes = invocation.getArgument(0);
+			return Flux.from(publishes).flatMap(mqtt5Publish -> Flux.error(new IllegalStateException("connection lost")));
+		});
+		publishQueue = new PublishQueue(mqttMetrics, DataSize.ofMegabytes(1), PublishQueue.OverflowPolicy.REJECT);
+		publisherWorkFlow = new PublisherWorkFlow(new MessageTracer(0, List.of(), 64), mqttMetrics, publishQueue,
+				publishSpool, new DeliveryLatency(mqttMetrics, false, 100));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		publishQueue.shutdown();
+	}
+
+	@Test
+	public void shouldCountEveryMessageOfTheBatchByItsOutcome() {
+		final Flux<PublishMessageDTO> messages = Flux.just(
+				message("topic1", "published"),
+				message(NACKED_TOPIC, "not acknowledged"),
+				message("topic2", "published"),
+				message(null, "no topic"),
+				message(BROKEN_TOPIC, "connection lost"),
+				message("topic3", null));
+
+		StepVerifier.create(publisherWorkFlow.publishBatchWorkFlow(BROKER_NAME,
+						(topicName, ordered) -> BROKEN_TOPIC.equals(topicName) ? brokenMqtt5ReactorClient : mqtt5ReactorClient,
+						messages, MqttQos.AT_LEAST_ONCE, true))
+				.expectNext(PublishBatchResultDTO.builder().published(2).failed(2).rejected(2).build())
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	private static PublishMessageDTO message(final String topic, final String payload) {
+		return PublishMessageDTO.builder().topic(topic).payload(payload).build();
+	}
+}
@@ -0,0 +1,91 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.ReceivedMessage;
+import com.example.mqttbrokerapi.service.ReplayBuffer;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+public class ReplayBufferTest {
+	private final static String BROKER_NAME = "broker1";
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(new SimpleMeterRegistry());
+
+	@Test
+	public void shouldReplayFromOffset_AcrossTopicsMatchingTheFilter() {
+		final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofKilobytes(4));
+		replayBuffer.retain(BROKER_NAME, "sensors/#");
+		final long first = replayBuffer.record(BROKER_NAME, publish("sensors/kitchen/temp", "20"));
+		final long second = replayBuffer.record(BROKER_NAME, publish("sensors/hall/temp", "18"));
+		replayBuffer.record(BROKER_NAME, publish("sensors/kitchen/temp", "21"));
+		replayBuffer.record(BROKER_NAME, publish("other", "x"));
+
+		assertTrue(first < second);
+		assertEquals(List.of("20", "18", "21"), payloads(replayBuffer.history(BROKER_NAME, "sensors/+/temp", first)));
+		assertEquals(List.of("18", "21"), payloads(replayBuffer.history(BROKER_NAME, "sensors/+/temp", second)));
+		assertEquals(List.of("20", "21"), payloads(replayBuffer.history(BROKER_NAME, "sensors/kitchen/temp", first)));
+	}
+
+	@Test
+	public void shouldRecordAMessageDeliveredTwiceOnce() {
+		final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofKilobytes(4));
+		replayBuffer.retain(BROKER_NAME, "#");
+		final Mqtt5Publish mqtt5Publish = publish("sensors/kitchen/temp", "20");
+
+		assertEquals(replayBuffer.record(BROKER_NAME, mqtt5Publish), replayBuffer.record(BROKER_NAME, mqtt5Publish));
+		assertEquals(1, replayBuffer.history(BROKER_NAME, "#", 0).messages().size());
+	}
+
+	@Test
+	public void shouldEvictTheOldestMessages_WhenTheRingIsFull() {
+		// 90 bytes hold four records of a 20 byte header and a one byte payload, wrapping mid-record
+		final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofBytes(90));
+		replayBuffer.retain(BROKER_NAME, "topic1");
+		IntStream.range(0, 23).forEach(i -> replayBuffer.record(BROKER_NAME, publish("topic1", Integer.toString(i % 10))));
+
+		final ReplayBuffer.History history = replayBuffer.history(BROKER_NAME, "topic1", 0);
+
+		assertEquals(List.of("9", "0", "1", "2"), payloads(history));
+		assertTrue(history.messages().get(3).offset() < history.head());
+	}
+
+	@Test
+	public void shouldOnlyHandOutOffsets_UntilAStreamCanReplayTheTopic() {
+		final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofKilobytes(4));
+		final long first = replayBuffer.record(BROKER_NAME, publish("sensors/kitchen/temp", "20"));
+
+		replayBuffer.retain(BROKER_NAME, "sensors/+/temp");
+		replayBuffer.record(BROKER_NAME, publish("sensors/kitchen/temp", "21"));
+		replayBuffer.record(BROKER_NAME, publish("sensors/hall/temp", "18"));
+		replayBuffer.release(BROKER_NAME, "sensors/+/temp");
+		replayBuffer.record(BROKER_NAME, publish("sensors/kitchen/temp", "22"));
+		replayBuffer.record(BROKER_NAME, publish("sensors/garage/temp", "12"));
+
+		// rings allocated while the stream was there keep recording, topics seen after it are not copied
+		assertEquals(List.of("21", "18", "22"), payloads(replayBuffer.history(BROKER_NAME, "sensors/+/temp", first)));
+	}
+
+	private static List<String> payloads(final ReplayBuffer.History history) {
+		return history.messages().stream()
+				.map(ReceivedMessage::mqtt5Publish)
+				.map(mqtt5Publish -> new String(mqtt5Publish.getPayloadAsBytes(), StandardCharsets.UTF_8))
+				.collect(Collectors.toList());
+	}
+
+	private static Mqtt5Publish publish(final String topic, final String payload) {
+		return Mqtt5Publish.builder()
+				.topic(topic)
+				.payload(payload.getBytes(StandardCharsets.UTF_8))
+				.build();
+	}
+}
@@ -0,0 +1,376 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.example.mqttbrokerapi.dto.ConsumerGroupDTO;
+import com.example.mqttbrokerapi.service.LastValueCache;
+import com.example.mqttbrokerapi.service.MqttMetrics;
+import com.example.mqttbrokerapi.service.ReceivedMessage;
+import com.example.mqttbrokerapi.service.ReplayBuffer;
+import com.example.mqttbrokerapi.service.SubscriptionMultiplexer;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.mqtt5.message.publish.Mqtt5Publish;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscribe;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.Mqtt5Subscription;
+import com.hivemq.client.mqtt.mqtt5.message.subscribe.suback.Mqtt5SubAck;
+import com.hivemq.client.mqtt.mqtt5.reactor.Mqtt5ReactorClient;
+import com.hivemq.client.rx.reactor.CoreWithSingleSubscriber;
+import com.hivemq.client.rx.reactor.FluxWithSingle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+@ExtendWith(MockitoExtension.class)
+public class SubscriptionMultiplexerTest {
+	private final static String BROKER_NAME = "broker1";
+
+	public static final String TOPIC_1 = "topic1";
+
+	@Mock
+	private Mqtt5ReactorClient mqtt5ReactorClient;
+
+	private final Sinks.Many<Mqtt5Publish> upstream = Sinks.many().multicast().directBestEffort();
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final MqttMetrics mqttMetrics = new MqttMetrics(meterRegistry);
+
+	private final LastValueCache lastValueCache = new LastValueCache(mqttMetrics, 16, Duration.ofHours(1));
+
+	private final ReplayBuffer replayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofKilobytes(4));
+
+	private SubscriptionMultiplexer subscriptionMultiplexer;
+
+	@BeforeEach
+	public void setUp() {
+		final Function<String, Mqtt5Subscribe> mqtt5SubscribeFactory = topic -> Mqtt5Subscribe.builder()
+				.topicFilter(topic)
+				.qos(MqttQos.AT_LEAST_ONCE)
+				.build();
+		subscriptionMultiplexer = new SubscriptionMultiplexer(mqtt5SubscribeFactory,
+				mqttMetrics, lastValueCache, replayBuffer, 256, 65536, SubscriptionMultiplexer.OverflowStrategy.DROP_OLDEST);
+		when(mqtt5ReactorClient.subscribePublishes(any(Mqtt5Subscribe.class)))
+				.thenAnswer(invocation -> new TestFluxWithSingle(upstream.asFlux()));
+	}
+
+	@Test
+	public void shouldShareOneBrokerSubscription_BetweenSubscribers() {
+		final List<String> first = new CopyOnWriteArrayList<>();
+		final List<String> second = new CopyOnWriteArrayList<>();
+
+		final Disposable firstSubscriber = subscribe(first);
+		final Disposable secondSubscriber = subscribe(second);
+		upstream.tryEmitNext(publish("hello"));
+
+		verify(mqtt5ReactorClient, times(1)).subscribePublishes(any(Mqtt5Subscribe.class));
+		assertEquals(List.of("hello"), first);
+		assertEquals(List.of("hello"), second);
+		assertEquals(2, subscriptionMultiplexer.subscriberCount(BROKER_NAME, TOPIC_1));
+		assertEquals(2, meterRegistry.get("mqtt.subscribe.active").tag("broker", BROKER_NAME).gauge().value(), 0);
+		assertEquals(1, meterRegistry.get("mqtt.subscribe.upstream").gauge().value(), 0);
+
+		firstSubscriber.dispose();
+		secondSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldUnsubscribe_WhenLastSubscriberCancels() {
+		when(mqtt5ReactorClient.unsubscribe(any())).thenReturn(Mono.empty());
+		final Disposable firstSubscriber = subscribe(new CopyOnWriteArrayList<>());
+		final Disposable secondSubscriber = subscribe(new CopyOnWriteArrayList<>());
+
+		firstSubscriber.dispose();
+		verify(mqtt5ReactorClient, never()).unsubscribe(any());
+		assertEquals(1, subscriptionMultiplexer.upstreamSubscriptionCount());
+
+		secondSubscriber.dispose();
+		verify(mqtt5ReactorClient, times(1)).unsubscribe(any());
+		assertEquals(0, subscriptionMultiplexer.upstreamSubscriptionCount());
+	}
+
+	@Test
+	public void shouldRouteNarrowerFilters_FromACoveringBrokerSubscription() {
+		final List<String> all = new CopyOnWriteArrayList<>();
+		final List<String> temperatures = new CopyOnWriteArrayList<>();
+
+		final Disposable allSubscriber = subscribe("sensors/#", all);
+		final Disposable temperatureSubscriber = subscribe("sensors/+/temp", temperatures);
+		upstream.tryEmitNext(publish("sensors/kitchen/temp", "21"));
+		upstream.tryEmitNext(publish("sensors/kitchen/humidity", "40"));
+
+		verify(mqtt5ReactorClient, times(1)).subscribePublishes(any(Mqtt5Subscribe.class));
+		assertEquals(List.of("21", "40"), all);
+		assertEquals(List.of("21"), temperatures);
+		assertEquals(2, subscriptionMultiplexer.subscriberCount(BROKER_NAME, "sensors/#"));
+
+		allSubscriber.dispose();
+		temperatureSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldHandEachMessageToOneMemberOfAConsumerGroup() {
+		final List<String> all = new CopyOnWriteArrayList<>();
+		final List<String> firstMember = new CopyOnWriteArrayList<>();
+		final List<String> secondMember = new CopyOnWriteArrayList<>();
+
+		final Disposable allSubscriber = subscribe("sensors/#", all);
+		final Disposable firstSubscriber = subscribe("$share/workers/sensors/+", firstMember);
+		final Disposable secondSubscriber = subscribe("$share/workers/sensors/+", secondMember);
+		upstream.tryEmitNext(publish("sensors/kitchen", "1"));
+		upstream.tryEmitNext(publish("sensors/hall", "2"));
+
+		// a shared subscription is never routed from, or covered by, a plain one
+		verify(mqtt5ReactorClient, times(2)).subscribePublishes(any(Mqtt5Subscribe.class));
+		assertEquals(List.of("1", "2"), all);
+		assertEquals(List.of("1"), firstMember);
+		assertEquals(List.of("2"), secondMember);
+		assertEquals(List.of(new ConsumerGroupDTO("workers", "sensors/+", 2)),
+				subscriptionMultiplexer.consumerGroups(BROKER_NAME));
+
+		allSubscriber.dispose();
+		firstSubscriber.dispose();
+		secondSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldSubscribeSeveralFiltersWithOneSubscribe_AndMergeTheirMessages() {
+		when(mqtt5ReactorClient.unsubscribe(any())).thenReturn(Mono.empty());
+		final List<String> topics = new CopyOnWriteArrayList<>();
+
+		final Disposable subscriber = subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, List.of(
+						Mqtt5Subscription.builder().topicFilter("sensors/+/temp").qos(MqttQos.EXACTLY_ONCE).build(),
+						Mqtt5Subscription.builder().topicFilter("alerts/#").qos(MqttQos.AT_MOST_ONCE).build()),
+						null, null, null)
+				.map(receivedMessage -> receivedMessage.mqtt5Publish().getTopic().toString())
+				.subscribe(topics::add);
+		upstream.tryEmitNext(publish("sensors/kitchen/temp", "21"));
+		upstream.tryEmitNext(publish("alerts/fire", "!"));
+
+		final ArgumentCaptor<Mqtt5Subscribe> mqtt5Subscribe = ArgumentCaptor.forClass(Mqtt5Subscribe.class);
+		verify(mqtt5ReactorClient, times(1)).subscribePublishes(mqtt5Subscribe.capture());
+		assertEquals(List.of(MqttQos.EXACTLY_ONCE, MqttQos.AT_MOST_ONCE), mqtt5Subscribe.getValue().getSubscriptions()
+				.stream().map(Mqtt5Subscription::getQos).toList());
+		assertEquals(List.of("sensors/kitchen/temp", "alerts/fire"), topics);
+		assertEquals(2, subscriptionMultiplexer.upstreamSubscriptionCount());
+
+		subscriber.dispose();
+		verify(mqtt5ReactorClient, times(2)).unsubscribe(any());
+		assertEquals(0, subscriptionMultiplexer.upstreamSubscriptionCount());
+	}
+
+	@Test
+	public void shouldCacheTheLatestMessagePerTopic() {
+		final Disposable subscriber = subscribe("sensors/#", new CopyOnWriteArrayList<>());
+		upstream.tryEmitNext(publish("sensors/kitchen/temp", "20"));
+		upstream.tryEmitNext(publish("sensors/kitchen/temp", "21"));
+
+		assertEquals("21", lastValueCache.get(BROKER_NAME, "sensors/kitchen/temp")
+				.map(mqtt5Publish -> new String(mqtt5Publish.getPayloadAsBytes(), StandardCharsets.UTF_8))
+				.orElseThrow());
+		assertTrue(lastValueCache.get(BROKER_NAME, "sensors/hall/temp").isEmpty());
+
+		upstream.tryEmitNext(Mqtt5Publish.builder().topic("sensors/kitchen/temp").retain(true).build());
+		assertTrue(lastValueCache.get(BROKER_NAME, "sensors/kitchen/temp").isEmpty());
+		subscriber.dispose();
+	}
+
+	@Test
+	public void shouldReplayFromOffset_AndThenContinueLive() {
+		final List<ReceivedMessage> first = new CopyOnWriteArrayList<>();
+		final Disposable firstSubscriber = subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, TOPIC_1)
+				.subscribe(first::add);
+		Stream.of("1", "2", "3").forEach(payload -> upstream.tryEmitNext(publish(payload)));
+
+		StepVerifier.create(subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null,
+								first.get(1).offset())
+						.map(SubscriptionMultiplexerTest::payload))
+				.expectNext("2", "3")
+				.then(() -> upstream.tryEmitNext(publish("4")))
+				.expectNext("4")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		assertTrue(first.get(0).offset() < first.get(1).offset());
+		firstSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldNotRecordTheMessages_OfAStreamThatCannotResume() {
+		final List<ReceivedMessage> first = new CopyOnWriteArrayList<>();
+		final Disposable firstSubscriber = subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, TOPIC_1,
+						null, null, null, false)
+				.subscribe(first::add);
+		Stream.of("1", "2").forEach(payload -> upstream.tryEmitNext(publish(payload)));
+
+		assertEquals(2, first.size());
+		assertTrue(replayBuffer.history(BROKER_NAME, TOPIC_1, first.get(0).offset()).messages().isEmpty());
+		firstSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldNotDeliverLiveMessagesAheadOfTheHistory_WhenTheyArriveWhileResuming() {
+		// a live message arrives after the resuming stream is routed but before its history is read
+		final ReplayBuffer racingReplayBuffer = new ReplayBuffer(mqttMetrics, 16, DataSize.ofKilobytes(4)) {
+			@Override
+			public History history(final String brokerName, final String topicFilter, final long fromOffset) {
+				upstream.tryEmitNext(publish("3"));
+				return super.history(brokerName, topicFilter, fromOffset);
+			}
+		};
+		subscriptionMultiplexer = new SubscriptionMultiplexer(topic -> Mqtt5Subscribe.builder().topicFilter(topic).build(),
+				mqttMetrics, lastValueCache, racingReplayBuffer, 256, 65536, SubscriptionMultiplexer.OverflowStrategy.DROP_OLDEST);
+		final List<ReceivedMessage> first = new CopyOnWriteArrayList<>();
+		final Disposable firstSubscriber = subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, TOPIC_1)
+				.subscribe(first::add);
+		Stream.of("1", "2").forEach(payload -> upstream.tryEmitNext(publish(payload)));
+
+		StepVerifier.create(subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, TOPIC_1, null, null,
+								first.get(0).offset())
+						.map(SubscriptionMultiplexerTest::payload))
+				.expectNext("1", "2", "3")
+				.then(() -> upstream.tryEmitNext(publish("4")))
+				.expectNext("4")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		firstSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldDropOldestMessages_OfASlowSubscriber() {
+		final List<String> fast = new CopyOnWriteArrayList<>();
+		final Disposable fastSubscriber = subscribe(fast);
+
+		StepVerifier.create(payloads(2, SubscriptionMultiplexer.OverflowStrategy.DROP_OLDEST), 0)
+				.then(() -> Stream.of("1", "2", "3").forEach(payload -> upstream.tryEmitNext(publish(TOPIC_1, payload))))
+				.thenRequest(2)
+				.expectNext("2", "3")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(List.of("1", "2", "3"), fast);
+		assertEquals(1, droppedDeliveries("drop-oldest"), 0);
+		fastSubscriber.dispose();
+	}
+
+	@Test
+	public void shouldDropNewestMessages_OfASlowSubscriber() {
+		StepVerifier.create(payloads(2, SubscriptionMultiplexer.OverflowStrategy.DROP_NEWEST), 0)
+				.then(() -> Stream.of("1", "2", "3").forEach(payload -> upstream.tryEmitNext(publish(TOPIC_1, payload))))
+				.thenRequest(2)
+				.expectNext("1", "2")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(1, droppedDeliveries("drop-newest"), 0);
+	}
+
+	@Test
+	public void shouldFailTheSlowSubscriber_WhenStrategyIsError() {
+		StepVerifier.create(payloads(1, SubscriptionMultiplexer.OverflowStrategy.ERROR), 0)
+				.then(() -> Stream.of("1", "2").forEach(payload -> upstream.tryEmitNext(publish(TOPIC_1, payload))))
+				.expectErrorMatches(Exceptions::isOverflow)
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(0, subscriptionMultiplexer.subscriberCount(BROKER_NAME, TOPIC_1));
+	}
+
+	@Test
+	public void shouldKeepOnlyTheLatestMessagePerTopic_WhenStrategyIsConflate() {
+		StepVerifier.create(payloads("sensors/+", 8, SubscriptionMultiplexer.OverflowStrategy.CONFLATE), 0)
+				.then(() -> {
+					upstream.tryEmitNext(publish("sensors/a", "a1"));
+					upstream.tryEmitNext(publish("sensors/b", "b1"));
+					upstream.tryEmitNext(publish("sensors/a", "a2"));
+				})
+				.thenRequest(2)
+				.expectNext("a2", "b1")
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(1, droppedDeliveries("conflate"), 0);
+	}
+
+	private Flux<String> payloads(final int bufferSize, final SubscriptionMultiplexer.OverflowStrategy overflowStrategy) {
+		return payloads(TOPIC_1, bufferSize, overflowStrategy);
+	}
+
+	private Flux<String> payloads(final String topicFilter, final int bufferSize,
+			final SubscriptionMultiplexer.OverflowStrategy overflowStrategy) {
+		return subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, topicFilter, bufferSize, overflowStrategy, null)
+				.map(SubscriptionMultiplexerTest::payload);
+	}
+
+	private double droppedDeliveries(final String overflowStrategy) {
+		return meterRegistry.get("mqtt.subscribe.dropped").tag("broker", BROKER_NAME)
+				.tag("overflow", overflowStrategy).counter().count();
+	}
+
+	private Disposable subscribe(final List<String> received) {
+		return subscribe(TOPIC_1, received);
+	}
+
+	private Disposable subscribe(final String topicFilter, final List<String> received) {
+		return subscriptionMultiplexer.attach(BROKER_NAME, mqtt5ReactorClient, topicFilter)
+				.map(SubscriptionMultiplexerTest::payload)
+				.subscribe(received::add);
+	}
+
+	private static String payload(final ReceivedMessage receivedMessage) {
+		return new String(receivedMessage.mqtt5Publish().getPayloadAsBytes(), StandardCharsets.UTF_8);
+	}
+
+	private static Mqtt5Publish publish(final String payload) {
+		return publish(TOPIC_1, payload);
+	}
+
+	private static Mqtt5Publish publish(final String topic, final String payload) {
+		return Mqtt5Publish.builder()
+				.topic(topic)
+				.payload(payload.getBytes(StandardCharsets.UTF_8))
+				.build();
+	}
+
+	private static class TestFluxWithSingle extends FluxWithSingle<Mqtt5Publish, Mqtt5SubAck> {
+		private final Flux<Mqtt5Publish> source;
+
+		private TestFluxWithSingle(final Flux<Mqtt5Publish> source) {
+			this.source = source;
+		}
+
+		@Override
+		public void subscribe(final CoreSubscriber<? super Mqtt5Publish> actual) {
+			source.subscribe(actual);
+		}
+
+		@Override
+		public void subscribeBoth(final CoreWithSingleSubscriber<? super Mqtt5Publish, ? super Mqtt5SubAck> subscriber) {
+			source.subscribe(subscriber);
+		}
+	}
+}
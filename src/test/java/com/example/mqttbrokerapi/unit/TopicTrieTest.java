@@ -0,0 +1,68 @@
+package com.example.mqttbrokerapi.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.example.mqttbrokerapi.service.TopicTrie;
+import org.junit.jupiter.api.Test;
+
+public class TopicTrieTest {
+
+	@Test
+	public void shouldMatchFilters_WithWildcards() {
+		final TopicTrie<String> topicTrie = new TopicTrie<>();
+		Set.of("sensors/+/temp", "sensors/#", "sensors/kitchen/temp", "+/kitchen/+", "#", "sensors/+", "other")
+				.forEach(topicFilter -> topicTrie.add(topicFilter, topicFilter));
+
+		assertEquals(Set.of("sensors/+/temp", "sensors/#", "sensors/kitchen/temp", "+/kitchen/+", "#"),
+				matches(topicTrie, "sensors/kitchen/temp"));
+		assertEquals(Set.of("sensors/#", "#", "sensors/+"), matches(topicTrie, "sensors/hall"));
+		assertEquals(Set.of("sensors/#", "#"), matches(topicTrie, "sensors"));
+		assertEquals(Set.of("#"), matches(topicTrie, "sensors2/kitchen"));
+	}
+
+	@Test
+	public void shouldNotMatchDollarTopics_WithLeadingWildcards() {
+		final TopicTrie<String> topicTrie = new TopicTrie<>();
+		Set.of("#", "+/broker/clients", "$SYS/#").forEach(topicFilter -> topicTrie.add(topicFilter, topicFilter));
+
+		assertEquals(Set.of("$SYS/#"), matches(topicTrie, "$SYS/broker/clients"));
+	}
+
+	@Test
+	public void shouldForgetRemovedFilters() {
+		final TopicTrie<String> topicTrie = new TopicTrie<>();
+		topicTrie.add("sensors/+/temp", "first");
+		topicTrie.add("sensors/+/temp", "second");
+
+		assertTrue(topicTrie.remove("sensors/+/temp", "first"));
+		assertEquals(Set.of("second"), matches(topicTrie, "sensors/kitchen/temp"));
+		assertTrue(topicTrie.remove("sensors/+/temp", "second"));
+		assertFalse(topicTrie.remove("sensors/+/temp", "second"));
+		assertTrue(topicTrie.isEmpty());
+	}
+
+	@Test
+	public void shouldTellWhetherAFilterCoversAnother() {
+		assertTrue(TopicTrie.covers("sensors/#", "sensors/+/temp"));
+		assertTrue(TopicTrie.covers("sensors/#", "sensors"));
+		assertTrue(TopicTrie.covers("sensors/+/temp", "sensors/kitchen/temp"));
+		assertTrue(TopicTrie.covers("#", "sensors/#"));
+		assertFalse(TopicTrie.covers("sensors/+/temp", "sensors/#"));
+		assertFalse(TopicTrie.covers("sensors/kitchen/temp", "sensors/+/temp"));
+		assertFalse(TopicTrie.covers("sensors/+", "sensors/kitchen/temp"));
+		assertFalse(TopicTrie.covers("#", "$SYS/#"));
+		assertFalse(TopicTrie.covers("sensors/#", "$share/workers/sensors/temp"));
+		assertFalse(TopicTrie.covers("$share/workers/sensors/#", "$share/workers/sensors/temp"));
+	}
+
+	private static Set<String> matches(final TopicTrie<String> topicTrie, final String topic) {
+		final Set<String> matches = new TreeSet<>();
+		topicTrie.forEachMatch(topic, matches::add);
+		return matches;
+	}
+}